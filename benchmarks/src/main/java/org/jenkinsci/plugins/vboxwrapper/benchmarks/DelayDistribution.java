@@ -0,0 +1,38 @@
+package org.jenkinsci.plugins.vboxwrapper.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Distribution of time an agent takes to come online after a connect attempt
+ *
+ * @author theirix
+ */
+public enum DelayDistribution {
+    /* Always the mean */
+    FIXED {
+        @Override
+        long sample(long mean, Random random) {
+            return mean;
+        }
+    },
+    /* Uniform between zero and twice the mean */
+    UNIFORM {
+        @Override
+        long sample(long mean, Random random) {
+            return (long) (2 * mean * random.nextDouble());
+        }
+    },
+    /* Exponential, a few agents are much slower than the others */
+    EXPONENTIAL {
+        @Override
+        long sample(long mean, Random random) {
+            return (long) (-mean * Math.log(1 - random.nextDouble()));
+        }
+    };
+
+    /**
+     * @param mean mean delay, milliseconds
+     * @return delay, milliseconds
+     */
+    abstract long sample(long mean, Random random);
+}
@@ -0,0 +1,76 @@
+package org.jenkinsci.plugins.vboxwrapper.benchmarks;
+
+import org.jenkinsci.plugins.vboxwrapper.VBoxAgent;
+import org.jenkinsci.plugins.vboxwrapper.VBoxReadiness;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory agent that comes online after a random delay
+ *
+ * @author theirix
+ */
+final class FakeAgent implements VBoxAgent {
+
+    private final String name;
+    private final DelayDistribution distribution;
+    private final long meanMillis;
+    private final ScheduledExecutorService scheduler;
+    private final Random random;
+
+    private volatile boolean online;
+
+    FakeAgent(String name, DelayDistribution distribution, long meanMillis,
+              ScheduledExecutorService scheduler, Random random) {
+        this.name = name;
+        this.distribution = distribution;
+        this.meanMillis = meanMillis;
+        this.scheduler = scheduler;
+        this.random = random;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isOnline() {
+        return online;
+    }
+
+    /**
+     * Bring agent online at once, e.g. before a disconnect benchmark
+     */
+    void setOnline(boolean online) {
+        this.online = online;
+        VBoxReadiness.get().signal(name);
+    }
+
+    public Future<?> connect() {
+        long delay;
+        synchronized (random) {
+            delay = distribution.sample(meanMillis, random);
+        }
+        return scheduler.schedule(new Callable<Void>() {
+            public Void call() {
+                setOnline(true);
+                return null;
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    public Future<?> disconnect(String reason) {
+        FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+            public Void call() {
+                setOnline(false);
+                return null;
+            }
+        });
+        task.run();
+        return task;
+    }
+}
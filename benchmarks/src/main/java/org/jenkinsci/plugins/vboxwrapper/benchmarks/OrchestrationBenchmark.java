@@ -0,0 +1,167 @@
+package org.jenkinsci.plugins.vboxwrapper.benchmarks;
+
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import org.jenkinsci.plugins.vboxwrapper.VBoxExecutors;
+import org.jenkinsci.plugins.vboxwrapper.VBoxOrchestrator;
+import org.jenkinsci.plugins.vboxwrapper.VBoxReconnectPolicy;
+import org.jenkinsci.plugins.vboxwrapper.VBoxTimelineAction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orchestration overhead of {@link VBoxOrchestrator} with fake agents.
+ * <p/>
+ * Connect benchmarks include the online delay of agents, compare them
+ * with the mean delay to get the overhead. Run with
+ * <tt>java -jar target/benchmarks.jar</tt>.
+ *
+ * @author theirix
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OrchestrationBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    private int vms;
+
+    @Param({"FIXED", "EXPONENTIAL"})
+    private DelayDistribution distribution;
+
+    /* Mean online delay of an agent, milliseconds */
+    @Param({"0", "20"})
+    private long meanMillis;
+
+    private ScheduledExecutorService scheduler;
+    private VBoxOrchestrator orchestrator;
+    private VBoxReconnectPolicy policy;
+    private TaskListener listener;
+    private List<FakeAgent> agents;
+    private List<Future<Boolean>> doneFutures;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        scheduler = Executors.newScheduledThreadPool(4);
+        orchestrator = new VBoxOrchestrator(VBoxExecutors.get(), 45);
+        /* Retry fast, no jitter to keep runs comparable */
+        policy = new VBoxReconnectPolicy(0, 0.1, 1.5, 1, 0, 60);
+        listener = new StreamTaskListener(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        Random random = new Random(42);
+        agents = new ArrayList<FakeAgent>();
+        doneFutures = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < vms; i++) {
+            agents.add(new FakeAgent("vm" + i, distribution, meanMillis, scheduler, random));
+            FutureTask<Boolean> future = new FutureTask<Boolean>(new Callable<Boolean>() {
+                public Boolean call() {
+                    return true;
+                }
+            });
+            future.run();
+            doneFutures.add(future);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Half of agents online, so selection does real work
+     */
+    @Setup(Level.Invocation)
+    public void resetAgents() {
+        for (int i = 0; i < agents.size(); i++) {
+            agents.get(i).setOnline(i % 2 == 0);
+        }
+    }
+
+    @Benchmark
+    public List<FakeAgent> select() {
+        return VBoxOrchestrator.select(agents, true);
+    }
+
+    @Benchmark
+    public boolean futureAll() throws InterruptedException, ExecutionException {
+        return VBoxOrchestrator.futureAll(doneFutures);
+    }
+
+    @Benchmark
+    public void executeTasks() throws IOException {
+        List<Callable<Boolean>> callables = new ArrayList<Callable<Boolean>>();
+        for (int i = 0; i < vms; i++) {
+            callables.add(new Callable<Boolean>() {
+                public Boolean call() {
+                    return true;
+                }
+            });
+        }
+        orchestrator.executeTasks(callables, listener);
+    }
+
+    @Benchmark
+    public void disconnect() throws IOException {
+        VBoxTimelineAction timeline = new VBoxTimelineAction();
+        List<Callable<Boolean>> callables = new ArrayList<Callable<Boolean>>();
+        for (FakeAgent agent : VBoxOrchestrator.select(agents, false)) {
+            callables.add(orchestrator.disconnectTask(agent, listener, timeline));
+        }
+        orchestrator.executeTasks(callables, listener);
+    }
+
+    @Benchmark
+    public void connect() throws IOException {
+        VBoxTimelineAction timeline = new VBoxTimelineAction();
+        List<Callable<Boolean>> callables = new ArrayList<Callable<Boolean>>();
+        for (FakeAgent agent : VBoxOrchestrator.select(agents, true)) {
+            callables.add(orchestrator.connectTask(agent, policy, false, listener, timeline));
+        }
+        orchestrator.executeTasks(callables, listener);
+    }
+
+    @Benchmark
+    public void reconnect() throws IOException {
+        VBoxTimelineAction timeline = new VBoxTimelineAction();
+        List<Callable<Boolean>> callables = new ArrayList<Callable<Boolean>>();
+        for (FakeAgent agent : agents) {
+            callables.add(orchestrator.connectTask(agent, policy, true, listener, timeline));
+        }
+        orchestrator.executeTasks(callables, listener);
+    }
+}
@@ -0,0 +1,318 @@
+package org.jenkinsci.plugins.vboxwrapper.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Fake VBoxManage executable for load tests without VirtualBox.
+ * <p/>
+ * Every machine is a properties file in the state directory, so parallel
+ * invocations share state. Supported commands are the ones used by the plugin:
+ * <tt>startvm</tt>, <tt>controlvm poweroff|savestate</tt>, <tt>snapshot restore|restorecurrent</tt>,
+ * <tt>showvminfo --machinereadable</tt>, <tt>list vms|runningvms</tt> and
+ * <tt>guestproperty get|wait</tt>. The extra <tt>agent</tt> command exits with zero
+ * only when the guest is booted, it gates a local agent process.
+ * <p/>
+ * Settings are environment variables:
+ * <ul>
+ * <li>VBOXSIM_HOME - state directory, default <tt>~/.vboxsim</tt></li>
+ * <li>VBOXSIM_COMMAND_MILLIS - latency of every state changing command, default 200</li>
+ * <li>VBOXSIM_BOOT_MILLIS - mean guest boot time after startvm, default 20000</li>
+ * <li>VBOXSIM_RESUME_MILLIS - guest resume time from a saved state, default 2000</li>
+ * <li>VBOXSIM_JITTER - relative random deviation of latencies, default 0.2</li>
+ * <li>VBOXSIM_FAILURE_RATE - probability of a failed state changing command, default 0</li>
+ * <li>VBOXSIM_HANG_RATE - probability of a guest that never finishes booting, default 0</li>
+ * </ul>
+ *
+ * @author theirix
+ */
+public final class VBoxManageSimulator {
+
+    private static final String POWEROFF = "poweroff";
+    private static final String RUNNING = "running";
+    private static final String SAVED = "saved";
+
+    /* Guest properties reported by a booted guest */
+    private static final String[][] GUEST_PROPERTIES = {
+            {"/VirtualBox/GuestInfo/OS/LoggedInUsers", "1"},
+            {"/VirtualBox/GuestInfo/Net/0/Status", "Up"},
+            {"/VirtualBox/GuestInfo/Net/0/V4/IP", "127.0.0.1"}
+    };
+
+    private final File home;
+    private final long commandMillis;
+    private final long bootMillis;
+    private final long resumeMillis;
+    private final double jitter;
+    private final double failureRate;
+    private final double hangRate;
+    private final Random random = new Random();
+
+    VBoxManageSimulator() {
+        String homeDir = System.getenv("VBOXSIM_HOME");
+        home = homeDir != null ? new File(homeDir) : new File(System.getProperty("user.home"), ".vboxsim");
+        commandMillis = (long) setting("VBOXSIM_COMMAND_MILLIS", 200);
+        bootMillis = (long) setting("VBOXSIM_BOOT_MILLIS", 20000);
+        resumeMillis = (long) setting("VBOXSIM_RESUME_MILLIS", 2000);
+        jitter = setting("VBOXSIM_JITTER", 0.2);
+        failureRate = setting("VBOXSIM_FAILURE_RATE", 0);
+        hangRate = setting("VBOXSIM_HANG_RATE", 0);
+    }
+
+    private static double setting(String name, double defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.trim().equals(""))
+            return defaultValue;
+        return Double.parseDouble(value.trim());
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(new VBoxManageSimulator().run(Arrays.asList(args)));
+    }
+
+    int run(List<String> args) throws IOException, InterruptedException {
+        if (!home.isDirectory() && !home.mkdirs())
+            return error("cannot create state directory " + home);
+        if (args.isEmpty())
+            return error("no command");
+        String command = args.get(0);
+        if (command.equals("list"))
+            return list(args.size() > 1 ? args.get(1) : "vms");
+        if (args.size() < 2)
+            return error("missing machine name");
+        String vm = args.get(1);
+
+        if (command.equals("startvm"))
+            return startvm(vm);
+        if (command.equals("controlvm") && args.size() > 2)
+            return controlvm(vm, args.get(2));
+        if (command.equals("snapshot") && args.size() > 2)
+            return snapshot(vm, args.get(2), args.size() > 3 ? args.get(3) : null);
+        if (command.equals("showvminfo"))
+            return showvminfo(vm);
+        if (command.equals("guestproperty") && args.size() > 3)
+            return guestproperty(args.get(1), args.get(2), args.subList(3, args.size()));
+        if (command.equals("agent"))
+            return isBooted(load(vm)) ? 0 : 1;
+        return error("unsupported command " + args);
+    }
+
+    private int startvm(String vm) throws IOException, InterruptedException {
+        pause(commandMillis);
+        FileLock lock = lock(vm);
+        try {
+            Properties state = load(vm);
+            String current = state.getProperty("state");
+            if (current.equals(RUNNING))
+                return error("The machine '" + vm + "' is already locked by a session (or being locked or unlocked)");
+            if (fails())
+                return error("Failed to start machine " + vm + " (injected failure)");
+            long boot = current.equals(SAVED) ? resumeMillis : bootMillis;
+            state.setProperty("state", RUNNING);
+            state.setProperty("bootedAt", random.nextDouble() < hangRate
+                    ? String.valueOf(Long.MAX_VALUE)
+                    : String.valueOf(System.currentTimeMillis() + vary(boot)));
+            store(vm, state);
+            System.out.println("Waiting for VM \"" + vm + "\" to power on...");
+            System.out.println("VM \"" + vm + "\" has been successfully started.");
+            return 0;
+        } finally {
+            lock.channel().close();
+        }
+    }
+
+    private int controlvm(String vm, String action) throws IOException, InterruptedException {
+        pause(commandMillis);
+        FileLock lock = lock(vm);
+        try {
+            Properties state = load(vm);
+            if (!state.getProperty("state").equals(RUNNING))
+                return error("Machine '" + vm + "' is not currently running");
+            if (fails())
+                return error("Failed to " + action + " machine " + vm + " (injected failure)");
+            if (action.equals("poweroff") || action.equals("acpipowerbutton"))
+                state.setProperty("state", POWEROFF);
+            else if (action.equals("savestate"))
+                state.setProperty("state", SAVED);
+            else if (action.equals("reset"))
+                state.setProperty("bootedAt", String.valueOf(System.currentTimeMillis() + vary(bootMillis)));
+            else
+                return error("unsupported controlvm action " + action);
+            store(vm, state);
+            return 0;
+        } finally {
+            lock.channel().close();
+        }
+    }
+
+    private int snapshot(String vm, String action, String name) throws IOException, InterruptedException {
+        pause(commandMillis);
+        FileLock lock = lock(vm);
+        try {
+            Properties state = load(vm);
+            if (state.getProperty("state").equals(RUNNING))
+                return error("Machine in invalid state 1 -- running");
+            if (fails())
+                return error("Failed to restore snapshot of " + vm + " (injected failure)");
+            if (action.equals("restore") && name != null)
+                state.setProperty("snapshot", name);
+            else if (!action.equals("restorecurrent"))
+                return error("unsupported snapshot action " + action);
+            state.setProperty("state", POWEROFF);
+            store(vm, state);
+            System.out.println("Restoring snapshot " + state.getProperty("snapshot", "current"));
+            return 0;
+        } finally {
+            lock.channel().close();
+        }
+    }
+
+    private int showvminfo(String vm) throws IOException {
+        Properties state = load(vm);
+        System.out.println("name=\"" + vm + "\"");
+        System.out.println("VMState=\"" + state.getProperty("state") + "\"");
+        System.out.println("memory=256");
+        System.out.println("cpus=1");
+        return 0;
+    }
+
+    private int list(String what) {
+        String[] files = home.list();
+        if (files == null)
+            return 0;
+        Arrays.sort(files);
+        for (String file : files) {
+            if (!file.endsWith(".properties"))
+                continue;
+            String vm = file.substring(0, file.length() - ".properties".length());
+            try {
+                if (what.equals("runningvms") && !load(vm).getProperty("state").equals(RUNNING))
+                    continue;
+            } catch (IOException e) {
+                continue;
+            }
+            System.out.println("\"" + vm + "\" {00000000-0000-0000-0000-000000000000}");
+        }
+        return 0;
+    }
+
+    /**
+     * guestproperty get vm name, guestproperty wait vm pattern [--timeout ms].
+     * Like VBoxManage, wait reports a change of a property, not a value already set when it started.
+     */
+    private int guestproperty(String action, String vm, List<String> args)
+            throws IOException, InterruptedException {
+        String name = args.get(0);
+        if (action.equals("get")) {
+            String value = guestProperty(load(vm), name);
+            System.out.println(value != null ? "Value: " + value : "No value set!");
+            return 0;
+        }
+        if (action.equals("wait")) {
+            long timeout = Long.MAX_VALUE;
+            int pos = args.indexOf("--timeout");
+            if (pos >= 0 && pos + 1 < args.size())
+                timeout = Long.parseLong(args.get(pos + 1));
+            long deadline = timeout == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+            String initial = guestProperty(load(vm), name);
+            while (System.currentTimeMillis() < deadline) {
+                String value = guestProperty(load(vm), name);
+                if (value != null && !value.equals(initial)) {
+                    System.out.println("Name: " + name + ", value: " + value + ", flags: ");
+                    return 0;
+                }
+                pause(Math.min(500, deadline - System.currentTimeMillis()));
+            }
+            System.out.println("Time out or interruption while waiting for a notification.");
+            return 1;
+        }
+        return error("unsupported guestproperty action " + action);
+    }
+
+    private String guestProperty(Properties state, String name) {
+        if (!isBooted(state))
+            return null;
+        for (String[] property : GUEST_PROPERTIES) {
+            if (property[0].equals(name) || name.endsWith("*") && property[0].startsWith(
+                    name.substring(0, name.length() - 1)))
+                return property[1];
+        }
+        return null;
+    }
+
+    private static boolean isBooted(Properties state) {
+        return state.getProperty("state").equals(RUNNING)
+                && System.currentTimeMillis() >= Long.parseLong(state.getProperty("bootedAt", "0"));
+    }
+
+    private boolean fails() {
+        return random.nextDouble() < failureRate;
+    }
+
+    private long vary(long millis) {
+        return Math.max(0, (long) (millis * (1 + jitter * (2 * random.nextDouble() - 1))));
+    }
+
+    private static void pause(long millis) throws InterruptedException {
+        if (millis > 0)
+            Thread.sleep(millis);
+    }
+
+    private static int error(String message) {
+        System.err.println("VBoxManage: error: " + message);
+        return 1;
+    }
+
+    private File file(String vm) {
+        return new File(home, vm + ".properties");
+    }
+
+    /**
+     * Exclusive lock of a machine held by a state changing command
+     */
+    private FileLock lock(String vm) throws IOException {
+        RandomAccessFile lockFile = new RandomAccessFile(new File(home, vm + ".lock"), "rw");
+        return lockFile.getChannel().lock();
+    }
+
+    /**
+     * Load machine state, unknown machines are created powered off
+     */
+    private Properties load(String vm) throws IOException {
+        Properties state = new Properties();
+        File file = file(vm);
+        if (file.exists()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                state.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        if (state.getProperty("state") == null)
+            state.setProperty("state", POWEROFF);
+        return state;
+    }
+
+    private void store(String vm, Properties state) throws IOException {
+        File temp = new File(home, vm + ".properties.tmp");
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            state.store(out, "vboxsim " + vm);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file(vm)))
+            throw new IOException("Cannot store state of " + vm);
+    }
+}
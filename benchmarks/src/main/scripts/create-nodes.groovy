@@ -0,0 +1,18 @@
+// Script console helper: register simulated slaves vm0..vm<count-1> labelled vboxsim
+import hudson.model.Node
+import hudson.slaves.CommandLauncher
+import hudson.slaves.DumbSlave
+import hudson.slaves.RetentionStrategy
+import jenkins.model.Jenkins
+
+def count = 100
+def scripts = '/path/to/vboxwrapper/benchmarks/src/main/scripts'
+def slaveJar = '/path/to/slave.jar'
+
+for (i in 0..<count) {
+    def name = "vm${i}"
+    def launcher = new CommandLauncher("${scripts}/vboxsim-agent ${name} ${slaveJar}")
+    def slave = new DumbSlave(name, "simulated machine", "/tmp/vboxsim-agents/${name}", "1",
+            Node.Mode.NORMAL, "vboxsim", launcher, RetentionStrategy.INSTANCE, [])
+    Jenkins.instance.addNode(slave)
+}
@@ -0,0 +1,21 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.Plugin;
+
+/**
+ * Ties plugin-wide resources to the plugin lifecycle
+ *
+ * @author theirix
+ */
+public class PluginImpl extends Plugin {
+
+    @Override
+    public void start() throws Exception {
+        VBoxExecutors.start();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        VBoxExecutors.stop();
+    }
+}
@@ -0,0 +1,132 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control of virtual machine boots by host memory and load.
+ * <p/>
+ * Memory and CPUs of admitted machines are reserved until their boot is over,
+ * so concurrent builds do not see the same free memory twice.
+ *
+ * @author theirix
+ */
+public final class VBoxAdmission {
+
+    /* Interval between resource checks */
+    private static final int POLL_INTERVAL = 15;
+
+    private static final VBoxAdmission INSTANCE = new VBoxAdmission();
+
+    /* Reserved memory in megabytes per host */
+    private final Map<String, Long> reservedMemory = new HashMap<String, Long>();
+
+    /* Reserved CPUs per host */
+    private final Map<String, Integer> reservedCpus = new HashMap<String, Integer>();
+
+    private VBoxAdmission() {
+    }
+
+    public static VBoxAdmission get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Resources reserved for booting machines, must be released when the boot is over
+     */
+    public final class Reservation {
+        private final String host;
+        private final long memory;
+        private final int cpus;
+        private boolean released;
+
+        Reservation(String host, long memory, int cpus) {
+            this.host = host;
+            this.memory = memory;
+            this.cpus = cpus;
+        }
+
+        public void release() {
+            synchronized (VBoxAdmission.this) {
+                if (released)
+                    return;
+                released = true;
+                reservedMemory.put(host, reservedMemory.get(host) - memory);
+                reservedCpus.put(host, reservedCpus.get(host) - cpus);
+            }
+        }
+    }
+
+    /**
+     * Wait until the host has enough memory and CPU for machines
+     *
+     * @param channel      channel to the host running VirtualBox
+     * @param driver       VBoxManage driver on the host to query machine settings
+     * @param memoryReserve memory in megabytes left free on the host
+     * @param maxLoadPerCore max load average per core after boot
+     * @param timeout      max wait in seconds
+     * @return reservation or null if host resources are unknown
+     * @throws IOException if resources are not available in time
+     */
+    public Reservation admit(String host, VirtualChannel channel, VBoxManageDriver driver,
+                             List<String> machines, long memoryReserve, double maxLoadPerCore,
+                             int timeout, TaskListener listener)
+            throws IOException, InterruptedException {
+        long memory = 0;
+        int cpus = 0;
+        for (String machine : machines) {
+            Map<String, String> info = driver.getInfo(machine);
+            memory += parse(info.get("memory"));
+            cpus += parse(info.get("cpus"));
+        }
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+        long started = System.currentTimeMillis();
+        while (true) {
+            VBoxHostResources resources = VBoxHostResources.read(channel);
+            if (resources == null) {
+                listener.getLogger().format("Host %s resources are unknown, admission skipped\n", host);
+                return null;
+            }
+            synchronized (this) {
+                long reserved = value(reservedMemory.get(host));
+                int reservedCpu = (int) value(reservedCpus.get(host));
+                boolean memoryOk = resources.getAvailableMemory() - reserved - memory >= memoryReserve;
+                boolean loadOk = resources.getLoad() + reservedCpu + cpus
+                        <= resources.getCores() * maxLoadPerCore;
+                if (memoryOk && loadOk) {
+                    reservedMemory.put(host, reserved + memory);
+                    reservedCpus.put(host, reservedCpu + cpus);
+                    listener.getLogger().format("Admitted %d MB, %d CPUs on %s (%s) after %d ms\n",
+                            memory, cpus, host, resources, System.currentTimeMillis() - started);
+                    return new Reservation(host, memory, cpus);
+                }
+                listener.getLogger().format("Waiting for %d MB, %d CPUs on %s: %s, %d MB and %d CPUs reserved\n",
+                        memory, cpus, host, resources, reserved, reservedCpu);
+            }
+            if (System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(POLL_INTERVAL) > deadline)
+                throw new IOException("Not enough memory or CPU on host " + host + " to boot " + machines);
+            Thread.sleep(TimeUnit.SECONDS.toMillis(POLL_INTERVAL));
+        }
+    }
+
+    private static long value(Number number) {
+        return number != null ? number.longValue() : 0;
+    }
+
+    private static int parse(String value) {
+        if (value == null)
+            return 0;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import java.util.concurrent.Future;
+
+/**
+ * Agent of a virtual machine as seen by {@link VBoxOrchestrator}.
+ * <p/>
+ * Implemented by {@link VBoxSlaveAgent} for Jenkins slaves, so the connect and
+ * disconnect logic does not depend on a running Jenkins instance.
+ *
+ * @author theirix
+ */
+public interface VBoxAgent {
+
+    /**
+     * @return node name, also the name of a virtual machine
+     */
+    String getName();
+
+    boolean isOnline();
+
+    /**
+     * Start a connect attempt
+     *
+     * @return future completed when the attempt is over
+     */
+    Future<?> connect();
+
+    /**
+     * Start a disconnect
+     *
+     * @param reason human readable reason shown as an offline cause
+     * @return future completed when the agent is disconnected
+     */
+    Future<?> disconnect(String reason);
+}
@@ -0,0 +1,66 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.Extension;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allocates machines of {@link VBoxParameterValue} when builds start
+ * and releases their leases when builds complete
+ *
+ * @author theirix
+ */
+@Extension
+public class VBoxAllocationListener extends RunListener<Run> {
+
+    public VBoxAllocationListener() {
+        super(Run.class);
+    }
+
+    @Override
+    public void onStarted(Run r, TaskListener listener) {
+        for (VBoxParameterValue value : getValues(r)) {
+            if (value.isAllocationPending())
+                listener.getLogger().format("Allocated nodes %s for parameter %s\n",
+                        value.allocate(), value.getName());
+        }
+    }
+
+    @Override
+    public void onCompleted(Run r, TaskListener listener) {
+        for (VBoxParameterValue value : getValues(r)) {
+            if (value.getLeaseId() != null)
+                VBoxAllocator.get().release(value.getLeaseId());
+        }
+    }
+
+    /**
+     * @return leases of nodes allocated for a build
+     */
+    static List<String> getLeaseIds(Run r) {
+        List<String> ids = new ArrayList<String>();
+        for (VBoxParameterValue value : getValues(r)) {
+            if (value.getLeaseId() != null)
+                ids.add(value.getLeaseId());
+        }
+        return ids;
+    }
+
+    private static List<VBoxParameterValue> getValues(Run r) {
+        List<VBoxParameterValue> values = new ArrayList<VBoxParameterValue>();
+        ParametersAction action = r.getAction(ParametersAction.class);
+        if (action == null)
+            return values;
+        for (ParameterValue value : action.getParameters()) {
+            if (value instanceof VBoxParameterValue)
+                values.add((VBoxParameterValue) value);
+        }
+        return values;
+    }
+}
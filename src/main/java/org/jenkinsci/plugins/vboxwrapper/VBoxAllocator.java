@@ -0,0 +1,125 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Allocates machines for {@link VBoxParameterDefinition} builds that do not pick machines themselves.
+ * <p/>
+ * Idle machines are preferred, then the least recently used ones. Machines are allocated
+ * when a build starts and are leased until the build completes, so queued builds that are
+ * merged or cancelled hold no machines.
+ *
+ * @author theirix
+ */
+public final class VBoxAllocator {
+
+    private final static Logger LOGGER = Logger.getLogger(VBoxAllocator.class.getName());
+
+    private static final VBoxAllocator INSTANCE = new VBoxAllocator();
+
+    private final AtomicLong counter = new AtomicLong();
+
+    /* Leased machines by lease id */
+    private final Map<String, List<String>> leases = new HashMap<String, List<String>>();
+
+    /* Lease id by leased machine */
+    private final Map<String, String> leased = new HashMap<String, String>();
+
+    /* Time a machine was released at */
+    private final Map<String, Long> lastUsed = new HashMap<String, Long>();
+
+    private VBoxAllocator() {
+    }
+
+    public static VBoxAllocator get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return unique lease id
+     */
+    public String newLeaseId() {
+        return "vbox-lease-" + System.currentTimeMillis() + "-" + counter.incrementAndGet();
+    }
+
+    /**
+     * Lease machines matching a label expression
+     *
+     * @param count number of machines, less are leased if not enough machines are free
+     * @return leased machines
+     */
+    public synchronized List<String> allocate(String leaseId, String label, int count) {
+        List<String> candidates = new ArrayList<String>();
+        for (String machine : VBoxUtils.getSlaveNamesByLabel(label)) {
+            if (!leased.containsKey(machine))
+                candidates.add(machine);
+        }
+        final Map<String, Integer> load = new HashMap<String, Integer>();
+        for (String candidate : candidates) {
+            load.put(candidate, VBoxUtils.getLoad(candidate));
+        }
+        Collections.sort(candidates, new Comparator<String>() {
+            public int compare(String a, String b) {
+                int result = load.get(a).compareTo(load.get(b));
+                if (result != 0)
+                    return result;
+                return getLastUsed(a).compareTo(getLastUsed(b));
+            }
+        });
+
+        List<String> machines = new ArrayList<String>(candidates.subList(0, Math.min(count, candidates.size())));
+        if (machines.size() < count)
+            LOGGER.log(Level.WARNING, "Only {0} of {1} machines matching {2} are free",
+                    new Object[]{machines.size(), count, label});
+        for (String machine : machines) {
+            leased.put(machine, leaseId);
+        }
+        leases.put(leaseId, machines);
+        return machines;
+    }
+
+    private Long getLastUsed(String machine) {
+        Long time = lastUsed.get(machine);
+        return time != null ? time : 0L;
+    }
+
+    /**
+     * Return machines of a lease
+     */
+    public synchronized void release(String leaseId) {
+        List<String> machines = leases.remove(leaseId);
+        if (machines == null)
+            return;
+        long now = System.currentTimeMillis();
+        for (String machine : machines) {
+            leased.remove(machine);
+            lastUsed.put(machine, now);
+        }
+    }
+
+    /**
+     * Machine is leased by a running build and must not be given to other builds
+     */
+    public synchronized boolean isLeased(String machine) {
+        return leased.containsKey(machine);
+    }
+
+    /**
+     * Machine is leased by a build other than the one holding leases
+     *
+     * @param leaseIds leases of a build
+     */
+    public synchronized boolean isLeasedByOther(String machine, Collection<String> leaseIds) {
+        String leaseId = leased.get(machine);
+        return leaseId != null && !leaseIds.contains(leaseId);
+    }
+}
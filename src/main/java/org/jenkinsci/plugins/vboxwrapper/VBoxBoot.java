@@ -0,0 +1,150 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Single entry point for machine boots: host admission control by {@link VBoxAdmission},
+ * then the host boot gate by {@link VBoxBootGate}.
+ * <p/>
+ * Builds, pre-boot, warm pools, the cloud and the idle shutdown strategy boot through it,
+ * so a burst of boots from any of them is throttled together.
+ * Boot tasks run on the shared executor, so it must not be called from there.
+ *
+ * @author theirix
+ */
+public final class VBoxBoot {
+
+    /**
+     * Boot of a single machine, e.g. start it and wait for its agent.
+     * It holds a boot slot until it returns.
+     */
+    public interface Task {
+        /**
+         * @return true if the machine is booted
+         */
+        boolean boot(String machine) throws Exception;
+    }
+
+    private VBoxBoot() {
+    }
+
+    private static VBoxBuildWrapper.DescriptorImpl descriptor() {
+        return Jenkins.getInstance().getDescriptorByType(VBoxBuildWrapper.DescriptorImpl.class);
+    }
+
+    /**
+     * Wait until the host has enough free memory and CPU for machines
+     *
+     * @param launcher launcher on the host running VirtualBox
+     * @return reservation to release after boot or null if admission control is off
+     */
+    public static VBoxAdmission.Reservation admit(String host, Launcher launcher, List<String> machines,
+                                                  TaskListener listener)
+            throws IOException, InterruptedException {
+        if (!descriptor().isAdmissionControl())
+            return null;
+        VBoxManageDriver driver = new VBoxManageDriver(descriptor().getVboxManagePath(),
+                launcher, listener);
+        return VBoxAdmission.get().admit(host, launcher.getChannel(), driver, machines,
+                descriptor().getMemoryReserve(), descriptor().getMaxLoadPerCore(),
+                descriptor().getAdmissionTimeout(), listener);
+    }
+
+    /**
+     * Admit machines and boot them through the boot gate of the host
+     *
+     * @param launcher launcher on the host running VirtualBox
+     * @return true if every machine is booted
+     */
+    public static boolean boot(String host, Launcher launcher, List<String> machines, Task task,
+                               TaskListener listener)
+            throws IOException, InterruptedException {
+        VBoxAdmission.Reservation reservation = admit(host, launcher, machines, listener);
+        try {
+            return throttle(host, machines, task, listener);
+        } finally {
+            if (reservation != null)
+                reservation.release();
+        }
+    }
+
+    /**
+     * Boot machines in parallel through the boot gate of the host
+     *
+     * @return true if every machine is booted
+     */
+    public static boolean throttle(String host, List<String> machines, Task task, TaskListener listener)
+            throws IOException, InterruptedException {
+        return throttle(VBoxExecutors.get(), VBoxBootGate.get(), host, descriptor().getMaxConcurrentBoots(),
+                machines, task, listener);
+    }
+
+    /**
+     * Boot machines in parallel, at most limit of them at once on a host.
+     * A permit is taken before a task is submitted, so boots are admitted in FIFO order.
+     *
+     * @param limit max boots in flight on the host, 0 for unlimited
+     * @return true if every machine is booted
+     */
+    static boolean throttle(ExecutorService executor, VBoxBootGate gate, String host, int limit,
+                            List<String> machines, final Task task, TaskListener listener)
+            throws IOException, InterruptedException {
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+        List<VBoxBootGate.Permit> permits = new ArrayList<VBoxBootGate.Permit>();
+        /* Tasks that started, a cancelled task that never started must release its permit here */
+        final Set<String> started = Collections.synchronizedSet(new HashSet<String>());
+        try {
+            for (final String machine : machines) {
+                final VBoxBootGate.Permit permit = limit > 0 ? gate.acquire(host, limit) : null;
+                if (permit != null) {
+                    synchronized (listener) {
+                        listener.getLogger().format("Boot gate on %s: waited %d ms for %s, %d of %d boots in flight\n",
+                                host, permit.getWaitMillis(), machine, gate.getInFlight(host), limit);
+                    }
+                }
+                permits.add(permit);
+                try {
+                    futures.add(executor.submit(new Callable<Boolean>() {
+                        public Boolean call() throws Exception {
+                            started.add(machine);
+                            try {
+                                return task.boot(machine);
+                            } finally {
+                                if (permit != null)
+                                    permit.release();
+                            }
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    permits.remove(permits.size() - 1);
+                    if (permit != null)
+                        permit.release();
+                    throw new IOException("Cannot schedule boot of " + machine, e);
+                }
+            }
+            return VBoxOrchestrator.futureAll(futures);
+        } catch (ExecutionException e) {
+            throw new IOException("Boot failed", e.getCause());
+        } finally {
+            for (int i = 0; i < futures.size(); i++) {
+                if (futures.get(i).cancel(true) && !started.contains(machines.get(i))
+                        && permits.get(i) != null)
+                    permits.get(i).release();
+            }
+        }
+    }
+}
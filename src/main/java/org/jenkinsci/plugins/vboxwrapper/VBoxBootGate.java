@@ -0,0 +1,110 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Controller-wide admission gate limiting virtual machine boots in flight per hypervisor host.
+ * <p/>
+ * A boot holds a permit from the start of a machine until its agent is online.
+ * Waiting boots are admitted in FIFO order.
+ *
+ * @author theirix
+ */
+public final class VBoxBootGate {
+
+    private static final VBoxBootGate INSTANCE = new VBoxBootGate();
+
+    /* Fair semaphore per host */
+    private final ConcurrentMap<String, Gate> gates = new ConcurrentHashMap<String, Gate>();
+
+    /* Tests use their own gate */
+    VBoxBootGate() {
+    }
+
+    public static VBoxBootGate get() {
+        return INSTANCE;
+    }
+
+    private static final class Gate {
+        private final int permits;
+        private final Semaphore semaphore;
+
+        Gate(int permits) {
+            this.permits = permits;
+            this.semaphore = new Semaphore(permits, true);
+        }
+    }
+
+    /**
+     * Permit to boot a machine, must be released when the boot is over
+     */
+    public static final class Permit {
+        private final Semaphore semaphore;
+        private final long waitMillis;
+        private boolean released;
+
+        Permit(Semaphore semaphore, long waitMillis) {
+            this.semaphore = semaphore;
+            this.waitMillis = waitMillis;
+        }
+
+        /**
+         * @return time spent waiting for the permit
+         */
+        public long getWaitMillis() {
+            return waitMillis;
+        }
+
+        public synchronized void release() {
+            if (!released) {
+                released = true;
+                semaphore.release();
+            }
+        }
+    }
+
+    /**
+     * Gate for a host, recreated when the limit is changed.
+     * Permits of a replaced gate are released to the old semaphore.
+     */
+    private Gate gate(String host, int permits) {
+        Gate gate = gates.get(host);
+        while (gate == null || gate.permits != permits) {
+            Gate created = new Gate(permits);
+            if (gate == null ? gates.putIfAbsent(host, created) == null : gates.replace(host, gate, created))
+                return created;
+            gate = gates.get(host);
+        }
+        return gate;
+    }
+
+    /**
+     * Wait for a boot slot on a host
+     *
+     * @param permits max boots in flight on the host
+     */
+    public Permit acquire(String host, int permits) throws InterruptedException {
+        Semaphore semaphore = gate(host, permits).semaphore;
+        long started = System.currentTimeMillis();
+        semaphore.acquire();
+        return new Permit(semaphore, System.currentTimeMillis() - started);
+    }
+
+    /**
+     * @return number of boots in flight on a host
+     */
+    public int getInFlight(String host) {
+        Gate gate = gates.get(host);
+        return gate != null ? gate.permits - gate.semaphore.availablePermits() : 0;
+    }
+
+    /**
+     * @return number of boots waiting for a slot on a host
+     */
+    public int getQueueLength(String host) {
+        Gate gate = gates.get(host);
+        return gate != null ? gate.semaphore.getQueueLength() : 0;
+    }
+}
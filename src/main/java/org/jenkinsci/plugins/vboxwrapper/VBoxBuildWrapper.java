@@ -6,20 +6,30 @@ import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
 import hudson.model.Computer;
-import hudson.slaves.OfflineCause;
+import hudson.model.Node;
 import hudson.slaves.SlaveComputer;
 import hudson.tasks.*;
 import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.regex.PatternSyntaxException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * BuildWrapper
@@ -37,29 +47,58 @@ import java.util.concurrent.*;
 @SuppressWarnings("rawtypes")
 public class VBoxBuildWrapper extends BuildWrapper {
 
-    /* Initial timeout */
-    private static final int CONNECT_TIMEOUT = 45;
+    private final static Logger LOGGER = Logger.getLogger(VBoxBuildWrapper.class.getName());
 
-    /* Total timeout */
-    private static final int CONNECT_TOTAL_TIMEOUT = 3 * 60;
+    /* Max wait for VBoxManage to report a started machine running, milliseconds */
+    private static final long RUNNING_TIMEOUT = 30000;
 
     /* Jelly bindings */
     private final List<String> virtualSlaves;
     private final boolean useSetup;
     private final boolean useTeardown;
+    private final String mode;
+    private final String snapshotName;
+    private final List<VBoxMachineSettings> machineSettings;
+    private final int lingerMinutes;
+    private final boolean preBoot;
+    private final String machineLabel;
+    private final int machineCount;
 
     @DataBoundConstructor
     public VBoxBuildWrapper(List<String> virtualSlaves, boolean useSetup,
-                            boolean useTeardown) {
+                            boolean useTeardown, String mode, String snapshotName,
+                            List<VBoxMachineSettings> machineSettings, int lingerMinutes,
+                            boolean preBoot, String machineLabel, int machineCount) {
         this.virtualSlaves = virtualSlaves;
         this.useSetup = useSetup;
         this.useTeardown = useTeardown;
+        this.mode = mode;
+        this.snapshotName = snapshotName;
+        this.machineSettings = machineSettings;
+        this.lingerMinutes = lingerMinutes;
+        this.preBoot = preBoot;
+        this.machineLabel = machineLabel;
+        this.machineCount = machineCount;
     }
 
     public List<String> getVirtualSlaves() {
         return virtualSlaves;
     }
 
+    /**
+     * Label expression of equivalent machines to pick from at build time
+     */
+    public String getMachineLabel() {
+        return machineLabel;
+    }
+
+    /**
+     * Number of machines to pick by label
+     */
+    public int getMachineCount() {
+        return machineCount > 0 ? machineCount : 1;
+    }
+
     public boolean isUseSetup() {
         return useSetup;
     }
@@ -68,6 +107,131 @@ public class VBoxBuildWrapper extends BuildWrapper {
         return useTeardown;
     }
 
+    public VBoxLifecycleMode getMode() {
+        return VBoxLifecycleMode.fromString(mode);
+    }
+
+    public String getSnapshotName() {
+        return snapshotName;
+    }
+
+    public List<VBoxMachineSettings> getMachineSettings() {
+        return machineSettings != null ? machineSettings : new ArrayList<VBoxMachineSettings>();
+    }
+
+    /**
+     * Minutes to keep an idle machine running after the last build, 0 to tear down immediately
+     */
+    public int getLingerMinutes() {
+        return Math.max(0, lingerMinutes);
+    }
+
+    /**
+     * Boot machines when a build is queued, see {@link VBoxPreBoot}
+     */
+    public boolean isPreBoot() {
+        return preBoot;
+    }
+
+    /**
+     * Fixed machines of a build
+     */
+    private List<String> getFixedMachines() {
+        return getVirtualSlaves() != null ? getVirtualSlaves() : new ArrayList<String>();
+    }
+
+    private boolean hasMachineLabel() {
+        return machineLabel != null && !machineLabel.trim().equals("");
+    }
+
+    /**
+     * Machines matching the label which are not fixed machines of a build
+     * and are not allocated to other builds by {@link VBoxAllocator}
+     *
+     * @param leaseIds allocator leases of the build
+     */
+    private List<String> getLabelCandidates(Collection<String> leaseIds) {
+        List<String> candidates = new ArrayList<String>(VBoxUtils.getSlaveNamesByLabel(machineLabel));
+        candidates.removeAll(getFixedMachines());
+        for (Iterator<String> it = candidates.iterator(); it.hasNext(); ) {
+            if (VBoxAllocator.get().isLeasedByOther(it.next(), leaseIds))
+                it.remove();
+        }
+        return candidates;
+    }
+
+    /**
+     * Acquire the least busy machines matching the label, see {@link VBoxMachineRegistry#acquireLeastLoaded}
+     *
+     * @param idleOnly acquire only machines without users
+     */
+    private Map<String, VBoxMachineRegistry.Use> acquireByLabel(List<String> candidates, String user,
+                                                                boolean idleOnly) {
+        Map<String, Integer> busy = new HashMap<String, Integer>();
+        for (String candidate : candidates) {
+            busy.put(candidate, VBoxUtils.countBusy(candidate));
+        }
+        return VBoxMachineRegistry.get().acquireLeastLoaded(candidates, getMachineCount(), user, busy, idleOnly);
+    }
+
+    /**
+     * Settings of a machine
+     *
+     * @return settings or null if machine has no specific settings
+     */
+    private VBoxMachineSettings getMachineSettings(String machine) {
+        for (VBoxMachineSettings settings : getMachineSettings()) {
+            if (machine.equals(settings.getName()))
+                return settings;
+        }
+        return null;
+    }
+
+    /**
+     * Connect schedule of a machine, global defaults overridden by machine settings
+     */
+    private VBoxReconnectPolicy getReconnectPolicy(String machine) {
+        return getDescriptor().getReconnectPolicy().override(getMachineSettings(machine));
+    }
+
+    /**
+     * Readiness probe of a machine, machine settings override the global probe.
+     * Guest properties are queried on the node of a launcher.
+     *
+     * @return probe or null if machine is not probed
+     */
+    private VBoxProbe getProbe(String machine, Launcher launcher, BuildListener listener) {
+        VBoxMachineSettings settings = getMachineSettings(machine);
+        String spec = settings != null && settings.getReadinessProbe() != null
+                && !settings.getReadinessProbe().equals("")
+                ? settings.getReadinessProbe() : getDescriptor().getReadinessProbe();
+        try {
+            return VBoxProbe.parse(spec, new VBoxManageDriver(getDescriptor().getVboxManagePath(),
+                    VBoxCommands.quiet(launcher), listener));
+        } catch (IllegalArgumentException e) {
+            listener.error(e.getMessage() + ", connecting without probe");
+            return null;
+        }
+    }
+
+    /**
+     * Snapshot to restore for every machine, per machine settings override the default name
+     *
+     * @return snapshot names by machine
+     */
+    private Map<String, String> getSnapshots(List<String> machines) {
+        Map<String, String> snapshots = new HashMap<String, String>();
+        for (String machine : machines) {
+            snapshots.put(machine, getSnapshotName());
+        }
+        for (VBoxMachineSettings settings : getMachineSettings()) {
+            if (settings.getSnapshot() != null && !settings.getSnapshot().equals("")
+                    && snapshots.containsKey(settings.getName()))
+                snapshots.put(settings.getName(), settings.getSnapshot());
+        }
+        return snapshots;
+    }
+
     /**
      * Custom environment that launches teardown steps
      */
@@ -75,8 +239,12 @@ public class VBoxBuildWrapper extends BuildWrapper {
 
         private final Launcher launcher;
 
-        public VBoxEnvironment(final Launcher launcher) {
+        /* Machines acquired by the build */
+        private final List<String> machines;
+
+        public VBoxEnvironment(final Launcher launcher, final List<String> machines) {
             this.launcher = launcher;
+            this.machines = machines;
         }
 
         /**
@@ -87,11 +255,7 @@ public class VBoxBuildWrapper extends BuildWrapper {
         public boolean tearDown(AbstractBuild build, BuildListener listener)
                 throws IOException, InterruptedException {
 
-            if (isUseTeardown()) {
-                disconnectSlaves(listener);
-                invokeVBoxCommand(getDescriptor().getTeardownCommand(), build,
-                        launcher, listener);
-            }
+            releaseMachines(machines, build, launcher, listener, isUseTeardown(), getTimeline(build));
 
             return true;
         }
@@ -107,44 +271,458 @@ public class VBoxBuildWrapper extends BuildWrapper {
                              BuildListener listener) throws IOException, InterruptedException {
 
         dumpSettings(listener);
+        VBoxTimelineAction timeline = getTimeline(build);
+        List<String> leaseIds = VBoxAllocationListener.getLeaseIds(build);
+        String user = getUserId(build);
+
+        /* Machines already used by other builds are attached, not booted */
+        List<String> owned = new ArrayList<String>();
+        List<String> attached = new ArrayList<String>();
+        List<String> acquired = new ArrayList<String>();
+        /* Machines leased from a pool by the label */
+        List<String> pooledByLabel = new ArrayList<String>();
+        /* Machines that may be running, a failed setup must not leave them marked as stopped */
+        List<String> running = new ArrayList<String>();
+        boolean success = false;
+        try {
+            Map<String, VBoxMachineRegistry.Use> uses = new LinkedHashMap<String, VBoxMachineRegistry.Use>();
+            for (String machine : getFixedMachines()) {
+                uses.put(machine, VBoxMachineRegistry.get().acquire(machine, user));
+                acquired.add(machine);
+            }
+            if (hasMachineLabel()) {
+                Map<String, VBoxMachineRegistry.Use> picked;
+                VBoxPoolTemplate template = VBoxPool.get().findTemplateByLabel(machineLabel);
+                if (template != null) {
+                    pooledByLabel.addAll(VBoxPool.get().leaseIdle(template, getMachineCount(), user,
+                            leaseIds, listener));
+                    picked = new LinkedHashMap<String, VBoxMachineRegistry.Use>();
+                    for (String machine : pooledByLabel) {
+                        picked.put(machine, VBoxMachineRegistry.Use.FIRST);
+                    }
+                } else {
+                    picked = acquireByLabel(getLabelCandidates(leaseIds), user, false);
+                }
+                acquired.addAll(picked.keySet());
+                uses.putAll(picked);
+                if (picked.size() < getMachineCount())
+                    listener.getLogger().format("Only %d of %d machines match label %s\n",
+                            picked.size(), getMachineCount(), machineLabel);
+            }
+            listener.getLogger().format("Machines of the build: %s\n", acquired);
+
+            for (Map.Entry<String, VBoxMachineRegistry.Use> entry : uses.entrySet()) {
+                String machine = entry.getKey();
+                switch (entry.getValue()) {
+                    case FIRST:
+                        owned.add(machine);
+                        break;
+                    case SHARED:
+                        attached.add(machine);
+                        listener.getLogger().format("Attaching to machine %s used by %s\n",
+                                machine, VBoxMachineRegistry.get().getUsers(machine));
+                        break;
+                    case WARM:
+                        attached.add(machine);
+                        listener.getLogger().format("Reusing lingering machine %s\n", machine);
+                        break;
+                }
+            }
+
+            running.addAll(attached);
+
+            List<String> named = new ArrayList<String>(owned);
+            named.removeAll(pooledByLabel);
+            List<String> pooled = new ArrayList<String>(pooledByLabel);
+            pooled.addAll(VBoxPool.get().lease(named, leaseIds, listener));
+
+            if (isUseSetup()) {
+                /* Warm pooled machines are neither booted nor reconnected */
+                List<String> machines = new ArrayList<String>();
+                for (String machine : owned) {
+                    if (!pooled.contains(machine) || !VBoxPool.get().isWarm(machine))
+                        machines.add(machine);
+                }
+                running.addAll(machines);
+                if (!machines.isEmpty())
+                    bootMachines(machines, getHostName(build), build, launcher, listener, timeline);
+                connectSlaves(owned, launcher, listener, true, timeline);
+                connectSlaves(attached, launcher, listener, false, timeline);
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                /* Running machines are torn down or kept lingering as after a build */
+                List<String> stopped = new ArrayList<String>(acquired);
+                stopped.removeAll(running);
+                try {
+                    releaseMachines(running, build, launcher, listener, true, timeline);
+                } finally {
+                    releaseMachines(stopped, build, launcher, listener, false, timeline);
+                }
+            }
+        }
+
+        return new VBoxEnvironment(launcher, acquired);
+    }
+
+    /**
+     * User of shared machines
+     */
+    private static String getUserId(AbstractBuild build) {
+        return build.getFullDisplayName();
+    }
+
+    /**
+     * Timeline of a build, attached on first use
+     */
+    private static VBoxTimelineAction getTimeline(AbstractBuild build) {
+        synchronized (build) {
+            VBoxTimelineAction timeline = build.getAction(VBoxTimelineAction.class);
+            if (timeline == null) {
+                timeline = new VBoxTimelineAction();
+                build.addAction(timeline);
+            }
+            return timeline;
+        }
+    }
+
+    /**
+     * Release machines of a build. Only the last user of a machine returns it
+     * to the pool or tears it down.
+     *
+     * @param teardown whether to turn off machines that are not pooled
+     */
+    private void releaseMachines(List<String> machines, AbstractBuild build, Launcher launcher,
+                                 BuildListener listener, boolean teardown,
+                                 VBoxTimelineAction timeline)
+            throws IOException, InterruptedException {
+        List<String> last = new ArrayList<String>();
+        for (String machine : machines) {
+            if (VBoxMachineRegistry.get().release(machine, getUserId(build))) {
+                last.add(machine);
+            } else {
+                listener.getLogger().format("Machine %s is still used by %s, teardown skipped\n",
+                        machine, VBoxMachineRegistry.get().getUsers(machine));
+            }
+        }
+
+        try {
+            /* Pooled machines are reset and kept warm instead of teardown */
+            List<String> unpooled = new ArrayList<String>();
+            for (String machine : last) {
+                if (VBoxPool.get().isLeased(machine))
+                    VBoxPool.get().release(machine, listener);
+                else
+                    unpooled.add(machine);
+            }
+
+            if (teardown && getLingerMinutes() > 0) {
+                for (String machine : unpooled) {
+                    listener.getLogger().format("Machine %s is kept running for %d minutes\n",
+                            machine, getLingerMinutes());
+                    VBoxMachineRegistry.get().linger(machine,
+                            new LingerTeardown(machine, getHostName(build)),
+                            getLingerMinutes(), TimeUnit.MINUTES);
+                }
+                last.removeAll(unpooled);
+            } else if (teardown && !unpooled.isEmpty()) {
+                disconnectSlaves(unpooled, listener, timeline);
+                stopMachines(unpooled, build, launcher, listener, timeline);
+            }
+        } finally {
+            VBoxMachineRegistry.get().stopped(last);
+        }
+    }
+
+    /**
+     * Delayed teardown of a lingering machine unless it is acquired again.
+     * Output goes to the system log as the build is over,
+     * events are not added to the timeline of the finished build.
+     * No build is kept, teardown commands run with a launcher of the host.
+     */
+    private class LingerTeardown implements Runnable {
+
+        private final String machine;
+        private final String host;
+
+        /**
+         * @param host name of the node running VirtualBox
+         */
+        LingerTeardown(String machine, String host) {
+            this.machine = machine;
+            this.host = host;
+        }
+
+        public void run() {
+            if (!VBoxMachineRegistry.get().expire(machine))
+                return;
+            List<String> machines = Collections.singletonList(machine);
+            BuildListener listener = VBoxCommands.logListener(LOGGER);
+            try {
+                LOGGER.info("Tearing down idle machine " + machine);
+                Node node = host.equals("master") ? Jenkins.getInstance() : Jenkins.getInstance().getNode(host);
+                Computer computer = node != null ? node.toComputer() : null;
+                if (computer == null || computer.getChannel() == null) {
+                    LOGGER.warning("Host " + host + " of idle machine " + machine + " is offline, teardown skipped");
+                    return;
+                }
+                VBoxTimelineAction timeline = new VBoxTimelineAction();
+                disconnectSlaves(machines, listener, timeline);
+                stopMachines(machines, null, node.createLauncher(listener), listener, timeline);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Teardown of idle machine " + machine + " failed", e);
+            } finally {
+                VBoxMachineRegistry.get().stopped(machines);
+            }
+        }
+    }
+
+    /**
+     * Boot idle machines of a queued build on master before the build gets an executor.
+     * Booted machines linger until the build acquires them or the pre-boot timeout elapses.
+     * Setup commands are launched on master without a build.
+     * Runs on {@link VBoxExecutors#boots()} as it waits for tasks of the shared executor.
+     *
+     * @param user queue user id of machines
+     */
+    void preBoot(String user) throws InterruptedException {
+        if (!isUseSetup() || !isPreBoot())
+            return;
+        List<String> machines = new ArrayList<String>();
+        for (String machine : getFixedMachines()) {
+            if (VBoxPool.get().findTemplate(machine) == null
+                    && VBoxMachineRegistry.get().tryAcquire(machine, user))
+                machines.add(machine);
+        }
+        if (hasMachineLabel()) {
+            List<String> candidates = getLabelCandidates(Collections.<String>emptyList());
+            for (Iterator<String> it = candidates.iterator(); it.hasNext(); ) {
+                if (VBoxPool.get().findTemplate(it.next()) != null)
+                    it.remove();
+            }
+            machines.addAll(acquireByLabel(candidates, user, true).keySet());
+        }
+        if (machines.isEmpty())
+            return;
+
+        LOGGER.log(Level.INFO, "Pre-booting machines {0} for {1}", new Object[]{machines, user});
+        BuildListener listener = VBoxCommands.logListener(LOGGER);
+        Launcher launcher = Jenkins.getInstance().createLauncher(listener);
+        boolean success = false;
+        try {
+            VBoxTimelineAction timeline = new VBoxTimelineAction();
+            bootMachines(machines, "master", null, launcher, listener, timeline);
+            connectSlaves(machines, launcher, listener, true, timeline);
+            success = true;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Pre-boot of " + machines + " failed", e);
+        } finally {
+            /* A build attached meanwhile owns machines now, otherwise they wait for the build.
+               Machines of a failed pre-boot may be running, they are torn down at once. */
+            for (String machine : machines) {
+                if (VBoxMachineRegistry.get().release(machine, user))
+                    VBoxMachineRegistry.get().linger(machine, new LingerTeardown(machine, "master"),
+                            success ? getDescriptor().getPreBootTimeout() : 0, TimeUnit.MINUTES);
+            }
+        }
+    }
+
+    /**
+     * Name of the hypervisor host, i.e. the node running setup commands
+     */
+    private static String getHostName(AbstractBuild build) {
+        Node node = build.getBuiltOn();
+        String name = node != null ? node.getNodeName() : "";
+        return name.equals("") ? "master" : name;
+    }
 
-        if (isUseSetup()) {
-            invokeVBoxCommand(getDescriptor().getSetupCommand(), build,
-                    launcher, listener);
-            connectSlaves(listener);
+    /**
+     * Boot machines through host admission control and, if boots are limited,
+     * the host boot gate. Shared by build setup and pre-boot.
+     * A gated machine holds its boot slot until its slave is online.
+     *
+     * @param host name of the node running VirtualBox
+     * @throws IOException is thrown if any slave is still offline
+     */
+    private void bootMachines(List<String> machines, String host, final AbstractBuild build,
+                              final Launcher launcher, final BuildListener listener,
+                              final VBoxTimelineAction timeline)
+            throws IOException, InterruptedException {
+        VBoxAdmission.Reservation reservation = VBoxBoot.admit(host, launcher, machines, listener);
+        try {
+            /* Admission and boot gate waits are logged, they are not a part of VM_RUNNING */
+            if (getDescriptor().getMaxConcurrentBoots() <= 0) {
+                long started = System.currentTimeMillis();
+                startMachines(machines, build, launcher, listener, timeline);
+                recordRunning(machines, started, launcher, listener);
+                return;
+            }
+            final VBoxOrchestrator orchestrator = getOrchestrator();
+            boolean online = VBoxBoot.throttle(host, machines, new VBoxBoot.Task() {
+                public boolean boot(String machine) throws Exception {
+                    long started = System.currentTimeMillis();
+                    startMachines(Collections.singletonList(machine), build, launcher, listener, timeline);
+                    recordRunning(Collections.singletonList(machine), started, launcher, listener);
+                    Computer computer = Jenkins.getInstance().getComputer(machine);
+                    if (computer instanceof SlaveComputer && computer.isOffline())
+                        return orchestrator.connect(new VBoxSlaveAgent((SlaveComputer) computer),
+                                getReconnectPolicy(machine), getProbe(machine, launcher, listener),
+                                true, listener, timeline);
+                    return true;
+                }
+            }, listener);
+            if (!online)
+                throw new IOException("Some slaves are still offline");
+        } finally {
+            if (reservation != null)
+                reservation.release();
         }
+    }
 
-        return new VBoxEnvironment(launcher);
+    /**
+     * Record VM_RUNNING of started machines once VBoxManage reports them running.
+     * Machines with an unknown state, e.g. started by commands on another host, are not recorded.
+     *
+     * @param started start of the boot
+     */
+    private void recordRunning(List<String> machines, long started, Launcher launcher, BuildListener listener)
+            throws InterruptedException {
+        VBoxManageDriver driver = new VBoxManageDriver(getDescriptor().getVboxManagePath(),
+                VBoxCommands.quiet(launcher), listener);
+        for (String machine : machines) {
+            if (driver.awaitState(machine, "running", RUNNING_TIMEOUT))
+                VBoxMetrics.get().record(machine, VBoxMetrics.Phase.VM_RUNNING,
+                        System.currentTimeMillis() - started);
+        }
+    }
+
+    /**
+     * Bring machines up according to the lifecycle mode
+     */
+    private void startMachines(List<String> machines, AbstractBuild build,
+                               Launcher launcher, BuildListener listener,
+                               VBoxTimelineAction timeline)
+            throws InterruptedException {
+        switch (getMode()) {
+            case SNAPSHOT:
+                invokeVBoxManage(machines, new VBoxManageDriver.RestoreSnapshot(getSnapshots(machines)),
+                        VBoxMetrics.Phase.SETUP_COMMAND, launcher, listener, timeline);
+                break;
+            case SAVESTATE:
+                invokeVBoxManage(machines, new VBoxManageDriver.Resume(),
+                        VBoxMetrics.Phase.SETUP_COMMAND, launcher, listener, timeline);
+                break;
+            default:
+                if (getDescriptor().isUseVBoxManage()) {
+                    invokeVBoxManage(machines, VBoxManageDriver.Operation.START,
+                            VBoxMetrics.Phase.SETUP_COMMAND, launcher, listener, timeline);
+                } else {
+                    invokeVBoxCommand(machines, getDescriptor().getSetupCommand(),
+                            VBoxMetrics.Phase.SETUP_COMMAND, build, launcher, listener, timeline);
+                }
+        }
+    }
+
+    /**
+     * Bring machines down according to the lifecycle mode
+     *
+     * @param build build running teardown commands, null to run them with the launcher only
+     */
+    private void stopMachines(List<String> machines, AbstractBuild build,
+                              Launcher launcher, BuildListener listener,
+                              VBoxTimelineAction timeline)
+            throws InterruptedException {
+        switch (getMode()) {
+            case SNAPSHOT:
+                invokeVBoxManage(machines, VBoxManageDriver.Operation.POWEROFF,
+                        VBoxMetrics.Phase.TEARDOWN_COMMAND, launcher, listener, timeline);
+                break;
+            case SAVESTATE:
+                invokeVBoxManage(machines, VBoxManageDriver.Operation.SAVESTATE,
+                        VBoxMetrics.Phase.TEARDOWN_COMMAND, launcher, listener, timeline);
+                break;
+            default:
+                if (getDescriptor().isUseVBoxManage()) {
+                    invokeVBoxManage(machines, VBoxManageDriver.Operation.POWEROFF,
+                            VBoxMetrics.Phase.TEARDOWN_COMMAND, launcher, listener, timeline);
+                } else {
+                    invokeVBoxCommand(machines, getDescriptor().getTeardownCommand(),
+                            VBoxMetrics.Phase.TEARDOWN_COMMAND, build, launcher, listener, timeline);
+                }
+        }
     }
 
     /**
      * Invoke shell command on master to setup/teardown selected virtual machines
      *
-     * @param body actual command to execute, parameters are appended
+     * @param body  actual command to execute, parameters are appended
+     * @param phase phase to record command latency for every machine
+     * @param build build running a shell step, null to launch the command directly
      */
-    private void invokeVBoxCommand(String body, AbstractBuild build,
-                                   Launcher launcher, BuildListener listener)
+    private void invokeVBoxCommand(List<String> machines, String body, VBoxMetrics.Phase phase,
+                                   AbstractBuild build, Launcher launcher, BuildListener listener,
+                                   VBoxTimelineAction timeline)
             throws InterruptedException {
         if (body == null || body.equals(""))
             return;
 
-        StringBuilder sb = new StringBuilder(body);
-        for (String slave : getVirtualSlaves()) {
-            sb.append(" ");
-            sb.append(slave);
+        long started = System.currentTimeMillis();
+        timeline.start(machines, phase);
+        boolean success;
+        if (build == null) {
+            success = VBoxCommands.run(body, machines, launcher, listener);
+        } else {
+            String commandLine = VBoxCommands.commandLine(body, machines);
+            listener.getLogger().println("Expect to launch command " + commandLine);
+            CommandInterpreter interpreter = VBoxCommands.isWindows()
+                    ? new BatchFile(commandLine) : new Shell(commandLine);
+            success = interpreter.perform(build, launcher, listener);
         }
-        String commandLine = sb.toString();
-        listener.getLogger().println("Expect to launch command " + commandLine);
-
-        boolean isWindows = System.getProperty("os.name").toLowerCase(Locale.ENGLISH).contains("windows");
-        CommandInterpreter interpreter = isWindows ? new BatchFile(commandLine) : new Shell(commandLine);
-        if (!interpreter.perform(build, launcher, listener))
+        timeline.end(machines, phase, success ? "succeeded" : "failed");
+        if (!success)
             listener.error("VBox setup shell failed");
+        VBoxMetrics.get().record(machines, phase, System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Invoke VBoxManage on master for every selected virtual machine in parallel
+     *
+     * @param task  startvm, controlvm or snapshot actions
+     * @param phase phase to record latencies
+     */
+    private void invokeVBoxManage(List<String> machines, final VBoxManageDriver.Task task,
+                                  final VBoxMetrics.Phase phase, Launcher launcher, BuildListener listener,
+                                  final VBoxTimelineAction timeline)
+            throws InterruptedException {
+        VBoxManageDriver driver = new VBoxManageDriver(getDescriptor().getVboxManagePath(),
+                launcher, listener);
+        /* Every machine starts its phase when its call is actually run, not queued */
+        VBoxManageDriver.Task timed = new VBoxManageDriver.Task() {
+            public VBoxManageDriver.Result run(VBoxManageDriver driver, String vm)
+                    throws InterruptedException {
+                timeline.start(vm, phase);
+                VBoxManageDriver.Result result = task.run(driver, vm);
+                timeline.end(vm, phase, "exit code " + result.getExitCode());
+                return result;
+            }
+        };
+        List<VBoxManageDriver.Result> results = driver.runAll(machines, timed,
+                getDescriptor().getMaxParallelCommands());
+        for (VBoxManageDriver.Result result : results) {
+            VBoxMetrics.get().record(result.getVm(), phase, result.getMillis());
+        }
+        if (!VBoxManageDriver.report(results, listener))
+            listener.error("VBoxManage failed for some virtual machines");
     }
 
     private void dumpSettings(BuildListener listener) {
         listener.getLogger().format("useSetup %b\n", isUseSetup());
         listener.getLogger().format("useTeardown %b\n", isUseTeardown());
+        listener.getLogger().format("mode %s\n", getMode());
+        listener.getLogger().format("machine label %s, count %d\n", getMachineLabel(), getMachineCount());
+        listener.getLogger().format("useVBoxManage %b\n",
+                getDescriptor().isUseVBoxManage());
         listener.getLogger().format("setup command %s\n",
                 getDescriptor().getSetupCommand());
         listener.getLogger().format("teardown command %s\n",
@@ -153,91 +731,49 @@ public class VBoxBuildWrapper extends BuildWrapper {
 
 
     /**
-     * Find slave computers with given status
+     * Find slave agents with given status
      *
-     * @return list of slave computers
+     * @return list of slave agents
      * @throws IOException
      */
-    private ArrayList<SlaveComputer> getSlaveComputers(boolean collectOffline) throws IOException {
-        ArrayList<SlaveComputer> computers = new ArrayList<SlaveComputer>();
-        for (String slave : getVirtualSlaves()) {
+    private List<VBoxSlaveAgent> getSlaveAgents(List<String> machines, boolean collectOffline)
+            throws IOException {
+        List<VBoxSlaveAgent> agents = new ArrayList<VBoxSlaveAgent>();
+        for (String slave : machines) {
             Computer computer = Jenkins.getInstance().getComputer(slave);
             if (computer == null) {
                 throw new IOException("Cannot find registered slave "
                         + slave);
             }
-            if (computer instanceof SlaveComputer && computer.isOffline() == collectOffline) {
-                computers.add((SlaveComputer) computer);
-            }
+            if (computer instanceof SlaveComputer)
+                agents.add(new VBoxSlaveAgent((SlaveComputer) computer));
         }
-        return computers;
+        return VBoxOrchestrator.select(agents, collectOffline);
     }
 
-    /**
-     * Run tasks in parallel
-     * Returns if all callables are evaluated to true
-     *
-     * @throws IOException if any callable failed
-     */
-    private void executeTasks(ArrayList<SlaveComputer> computers,
-                              List<Callable<Boolean>> callables, final BuildListener listener)
-            throws IOException {        /* Start tasks */
-        ExecutorService es = Executors.newFixedThreadPool(computers.size());
-        try {
-            List<Future<Boolean>> futures = es.invokeAll(callables);
-            if (!futureAll(futures)) {
-                throw new IOException("Some slaves are still in a previous state");
-            }
-        } catch (Exception e) {
-            throw new IOException("Node waiting failed", e);
-        }
-        listener.getLogger().format("Successfully awaited %d slaves\n", computers.size());
+    private VBoxOrchestrator getOrchestrator() {
+        return new VBoxOrchestrator(VBoxExecutors.get(), getDescriptor().getConnectTimeout());
     }
 
     /**
      * Disconnect all specified in settings slaves
      * Postcondition: all slaves are offline or an exception thrown
      */
-    private void disconnectSlaves(final BuildListener listener) throws IOException {
+    private void disconnectSlaves(List<String> machines, BuildListener listener,
+                                  VBoxTimelineAction timeline) throws IOException {
 
-		/* Collect online slaves */
-        ArrayList<SlaveComputer> computers = getSlaveComputers(false);
-        if (computers.isEmpty())
+        /* Collect online slaves */
+        List<VBoxSlaveAgent> agents = getSlaveAgents(machines, false);
+        if (agents.isEmpty())
             return;
 
+        VBoxOrchestrator orchestrator = getOrchestrator();
         List<Callable<Boolean>> callables = new ArrayList<Callable<Boolean>>();
-        for (final SlaveComputer computer : computers) {
-            callables.add(new Callable<Boolean>() {
-                /**
-                 * Slave reconnect attempts
-                 *
-                 * @return does a slave become online
-                 */
-                public Boolean call() throws Exception {
-					
-					/* Disconnect at first */
-                    synchronized (listener) {
-                        listener.getLogger().format("Disconnecting slave %s\n",
-                                computer.getName());
-                    }
-
-                    Future future = computer.disconnect(new OfflineCause.ByCLI("disconnect to connect"));
-                    try {
-                        future.get(CONNECT_TIMEOUT, TimeUnit.SECONDS);
-                    } catch (Exception e) {
-                        synchronized (listener) {
-                            listener.getLogger()
-                                    .format("Disconnect timed out or failed: %s\n", e.getMessage());
-                        }
-                    }
-
-                    return true;
-                }
-
-            });
+        for (VBoxSlaveAgent agent : agents) {
+            callables.add(orchestrator.disconnectTask(agent, listener, timeline));
         }
 
-        executeTasks(computers, callables, listener);
+        orchestrator.executeTasks(callables, listener);
     }
 
 
@@ -247,87 +783,23 @@ public class VBoxBuildWrapper extends BuildWrapper {
      *
      * @throws IOException is thrown if any slave is still offline
      */
-    private void connectSlaves(final BuildListener listener) throws IOException {
+    private void connectSlaves(List<String> machines, Launcher launcher, BuildListener listener,
+                               boolean disconnectFirst, VBoxTimelineAction timeline)
+            throws IOException {
 
-		/* Collect offline slaves */
-        ArrayList<SlaveComputer> computers = getSlaveComputers(true);
-        if (computers.isEmpty())
+        /* Collect offline slaves */
+        List<VBoxSlaveAgent> agents = getSlaveAgents(machines, true);
+        if (agents.isEmpty())
             return;
 
+        VBoxOrchestrator orchestrator = getOrchestrator();
         List<Callable<Boolean>> callables = new ArrayList<Callable<Boolean>>();
-        for (final SlaveComputer computer : computers) {
-            callables.add(new Callable<Boolean>() {
-                /**
-                 * Slave reconnect attempts
-                 *
-                 * @return does a slave become online
-                 */
-                public Boolean call() throws Exception {
-					
-					/* Disconnect at first */
-                    synchronized (listener) {
-                        listener.getLogger().format("Disconnecting slave %s at first\n",
-                                computer.getName());
-                    }
-
-                    Future future = computer.disconnect(new OfflineCause.ByCLI("disconnect to connect"));
-                    try {
-                        future.get(CONNECT_TIMEOUT, TimeUnit.SECONDS);
-                    } catch (Exception e) {
-                        synchronized (listener) {
-                            listener.getLogger()
-                                    .format("Disconnect timed out or failed: %s\n", e.getMessage());
-                        }
-                    }
-                    int total_elapsed = 0;
-                    int retry = 0;
-                    while (total_elapsed < CONNECT_TOTAL_TIMEOUT) {
-
-                        if (computer.isOnline())
-                            return true;
-
-                        synchronized (listener) {
-                            listener.getLogger().format("Reconnecting to %s, try %d...\n",
-                                    computer.getName(), retry + 1);
-                        }
-                        long elapsed = System.currentTimeMillis();
-                        future = computer.connect(false);
-                        try {
-                            future.get(CONNECT_TIMEOUT, TimeUnit.SECONDS);
-                        } catch (Exception e) {
-                            synchronized (listener) {
-                                listener.getLogger().format("Connect timed out or failed: %s\n",
-                                        e.getMessage());
-                            }
-                        }
-						/* Who knows, how threads are measured */
-                        elapsed = Math.max(1, System.currentTimeMillis() - elapsed) / 1000;
-                        total_elapsed += elapsed;
-                        ++retry;
-                    }
-                    return computer.isOnline();
-                }
-
-            });
+        for (VBoxSlaveAgent agent : agents) {
+            callables.add(orchestrator.connectTask(agent, getReconnectPolicy(agent.getName()),
+                    getProbe(agent.getName(), launcher, listener), disconnectFirst, listener, timeline));
         }
 
-        executeTasks(computers, callables, listener);
-    }
-
-    /**
-     * Returns true if all boolean futures evaluates to true
-     * Waits for all of them before return
-     *
-     * @param futures to reduce
-     * @return logical and of future results
-     */
-    private Boolean futureAll(final Collection<Future<Boolean>> futures)
-            throws InterruptedException, ExecutionException {
-        boolean result = true;
-        for (Future<Boolean> future : futures) {
-            result = result && future.get();
-        }
-        return result;
+        orchestrator.executeTasks(callables, listener);
     }
 
     @Override
@@ -342,8 +814,56 @@ public class VBoxBuildWrapper extends BuildWrapper {
     @Extension
     public static final class DescriptorImpl extends BuildWrapperDescriptor {
 
+        /* Default VBoxManage executable */
+        private static final String DEFAULT_VBOXMANAGE = "VBoxManage";
+
+        /* Default number of VBoxManage processes at once */
+        private static final int DEFAULT_MAX_PARALLEL = 4;
+
+        /* Default connect and disconnect timeout */
+        private static final int DEFAULT_CONNECT_TIMEOUT = 45;
+
+        /* Default total connect timeout */
+        private static final int DEFAULT_CONNECT_DEADLINE = 3 * 60;
+
+        /* Unlimited boots in flight per host */
+        private static final int DEFAULT_MAX_CONCURRENT_BOOTS = 0;
+
+        /* Default memory left free on a host, MB */
+        private static final int DEFAULT_MEMORY_RESERVE = 512;
+
+        /* Default max load average per core */
+        private static final double DEFAULT_MAX_LOAD_PER_CORE = 1.0;
+
+        /* Default wait for host resources */
+        private static final int DEFAULT_ADMISSION_TIMEOUT = 10 * 60;
+
+        /* Default time pre-booted machines wait for a queued build, minutes */
+        private static final int DEFAULT_PRE_BOOT_TIMEOUT = 30;
+
+        /* Machines per page of the picker */
+        private static final int PICKER_PAGE_SIZE = 50;
+
         private String setupCommand;
         private String teardownCommand;
+        private boolean useVBoxManage;
+        private String vboxManagePath;
+        private int maxParallelCommands;
+        private List<VBoxPoolTemplate> poolTemplates = new ArrayList<VBoxPoolTemplate>();
+        private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+        private double connectInitialDelay = 0;
+        private double connectInterval = 5;
+        private double connectBackoff = 1.5;
+        private double connectMaxInterval = 45;
+        private double connectJitter = 0.2;
+        private int connectDeadline = DEFAULT_CONNECT_DEADLINE;
+        private int maxConcurrentBoots = DEFAULT_MAX_CONCURRENT_BOOTS;
+        private boolean admissionControl;
+        private int memoryReserve = DEFAULT_MEMORY_RESERVE;
+        private double maxLoadPerCore = DEFAULT_MAX_LOAD_PER_CORE;
+        private int admissionTimeout = DEFAULT_ADMISSION_TIMEOUT;
+        private int preBootTimeout = DEFAULT_PRE_BOOT_TIMEOUT;
+        private String readinessProbe;
 
         public DescriptorImpl() {
             super();
@@ -358,6 +878,98 @@ public class VBoxBuildWrapper extends BuildWrapper {
             return teardownCommand;
         }
 
+        public boolean isUseVBoxManage() {
+            return useVBoxManage;
+        }
+
+        public String getVboxManagePath() {
+            return vboxManagePath == null || vboxManagePath.trim().equals("")
+                    ? DEFAULT_VBOXMANAGE : vboxManagePath.trim();
+        }
+
+        public int getMaxParallelCommands() {
+            return maxParallelCommands > 0 ? maxParallelCommands : DEFAULT_MAX_PARALLEL;
+        }
+
+        public List<VBoxPoolTemplate> getPoolTemplates() {
+            return poolTemplates != null ? poolTemplates : new ArrayList<VBoxPoolTemplate>();
+        }
+
+        public List<VBoxResetPolicy> getResetPolicies() {
+            return VBoxResetPolicy.all();
+        }
+
+        public int getConnectTimeout() {
+            return connectTimeout > 0 ? connectTimeout : DEFAULT_CONNECT_TIMEOUT;
+        }
+
+        public double getConnectInitialDelay() {
+            return connectInitialDelay;
+        }
+
+        public double getConnectInterval() {
+            return connectInterval;
+        }
+
+        public double getConnectBackoff() {
+            return connectBackoff;
+        }
+
+        public double getConnectMaxInterval() {
+            return connectMaxInterval;
+        }
+
+        public double getConnectJitter() {
+            return connectJitter;
+        }
+
+        public int getConnectDeadline() {
+            return connectDeadline > 0 ? connectDeadline : DEFAULT_CONNECT_DEADLINE;
+        }
+
+        /**
+         * Max number of machines booting at once on a host, 0 for unlimited
+         */
+        public int getMaxConcurrentBoots() {
+            return Math.max(0, maxConcurrentBoots);
+        }
+
+        public boolean isAdmissionControl() {
+            return admissionControl;
+        }
+
+        public int getMemoryReserve() {
+            return Math.max(0, memoryReserve);
+        }
+
+        public double getMaxLoadPerCore() {
+            return maxLoadPerCore > 0 ? maxLoadPerCore : DEFAULT_MAX_LOAD_PER_CORE;
+        }
+
+        public int getAdmissionTimeout() {
+            return admissionTimeout > 0 ? admissionTimeout : DEFAULT_ADMISSION_TIMEOUT;
+        }
+
+        public int getPreBootTimeout() {
+            return preBootTimeout > 0 ? preBootTimeout : DEFAULT_PRE_BOOT_TIMEOUT;
+        }
+
+        /**
+         * Default readiness probe spec, see {@link VBoxProbe}
+         */
+        public String getReadinessProbe() {
+            return readinessProbe;
+        }
+
+        /**
+         * Default connect schedule for all machines
+         */
+        public VBoxReconnectPolicy getReconnectPolicy() {
+            return new VBoxReconnectPolicy(getConnectInitialDelay(), getConnectInterval(),
+                    getConnectBackoff(), getConnectMaxInterval(), getConnectJitter(),
+                    getConnectDeadline());
+        }
+
         /**
          * Load a descriptor from json and saves global settings.
          */
@@ -366,10 +978,100 @@ public class VBoxBuildWrapper extends BuildWrapper {
                 throws FormException {
             setupCommand = json.getString("setupCommand");
             teardownCommand = json.getString("teardownCommand");
+            useVBoxManage = json.optBoolean("useVBoxManage");
+            vboxManagePath = json.optString("vboxManagePath");
+            maxParallelCommands = json.optInt("maxParallelCommands", DEFAULT_MAX_PARALLEL);
+            poolTemplates = req.bindJSONToList(VBoxPoolTemplate.class, json.get("poolTemplates"));
+            connectTimeout = json.optInt("connectTimeout", DEFAULT_CONNECT_TIMEOUT);
+            connectInitialDelay = json.optDouble("connectInitialDelay", 0);
+            connectInterval = json.optDouble("connectInterval", 5);
+            connectBackoff = json.optDouble("connectBackoff", 1.5);
+            connectMaxInterval = json.optDouble("connectMaxInterval", 45);
+            connectJitter = json.optDouble("connectJitter", 0.2);
+            connectDeadline = json.optInt("connectDeadline", DEFAULT_CONNECT_DEADLINE);
+            if (connectDeadline <= 0)
+                throw new FormException("Total connect timeout must be a positive number of seconds",
+                        "connectDeadline");
+            maxConcurrentBoots = json.optInt("maxConcurrentBoots", DEFAULT_MAX_CONCURRENT_BOOTS);
+            admissionControl = json.optBoolean("admissionControl");
+            memoryReserve = json.optInt("memoryReserve", DEFAULT_MEMORY_RESERVE);
+            maxLoadPerCore = json.optDouble("maxLoadPerCore", DEFAULT_MAX_LOAD_PER_CORE);
+            admissionTimeout = json.optInt("admissionTimeout", DEFAULT_ADMISSION_TIMEOUT);
+            preBootTimeout = json.optInt("preBootTimeout", DEFAULT_PRE_BOOT_TIMEOUT);
+            readinessProbe = json.optString("readinessProbe");
+            try {
+                VBoxProbe.parse(readinessProbe, null);
+            } catch (IllegalArgumentException e) {
+                throw new FormException(e.getMessage(), "readinessProbe");
+            }
             save();
             return super.configure(req, json);
         }
 
+        /**
+         * Search machines for the picker of the job configuration.
+         * Responds with a page of names as json.
+         *
+         * @param kind prefix, label or regex
+         * @param page page number starting from 0
+         */
+        public void doSearchMachines(StaplerRequest req, StaplerResponse rsp,
+                                     @QueryParameter String query, @QueryParameter String kind,
+                                     @QueryParameter int page) throws IOException {
+            Jenkins.getInstance().checkPermission(Jenkins.READ);
+            JSONObject result = new JSONObject();
+            try {
+                List<String> names = VBoxUtils.searchSlaveNames(query, kind);
+                int pages = Math.max(1, (names.size() + PICKER_PAGE_SIZE - 1) / PICKER_PAGE_SIZE);
+                page = Math.min(Math.max(0, page), pages - 1);
+                JSONArray machines = new JSONArray();
+                machines.addAll(names.subList(page * PICKER_PAGE_SIZE,
+                        Math.min(names.size(), (page + 1) * PICKER_PAGE_SIZE)));
+                result.put("machines", machines);
+                result.put("total", names.size());
+                result.put("page", page);
+                result.put("pages", pages);
+            } catch (PatternSyntaxException e) {
+                result.put("error", "Invalid regular expression: " + e.getDescription());
+            }
+            rsp.setContentType("application/json;charset=UTF-8");
+            rsp.getWriter().print(result.toString());
+        }
+
+        /**
+         * Reject unknown machines when a job is saved
+         */
+        @Override
+        public BuildWrapper newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+            VBoxBuildWrapper wrapper = (VBoxBuildWrapper) super.newInstance(req, formData);
+            if (wrapper.getVirtualSlaves() != null) {
+                for (String machine : wrapper.getVirtualSlaves()) {
+                    if (!VBoxUtils.isSlaveName(machine))
+                        throw new FormException("Unknown virtual node " + machine, "virtualSlaves");
+                }
+            }
+            for (VBoxMachineSettings settings : wrapper.getMachineSettings()) {
+                try {
+                    VBoxProbe.parse(settings.getReadinessProbe(), null);
+                } catch (IllegalArgumentException e) {
+                    throw new FormException(e.getMessage(), "machineSettings");
+                }
+                String deadline = settings.getConnectDeadline();
+                if (deadline != null && !deadline.trim().equals("") && !isPositive(deadline))
+                    throw new FormException("Total connect timeout of " + settings.getName()
+                            + " must be a positive number of seconds", "machineSettings");
+            }
+            return wrapper;
+        }
+
+        private static boolean isPositive(String value) {
+            try {
+                return Double.parseDouble(value.trim()) > 0;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
         /**
          * This human readable name is used in the configuration screen.
          */
@@ -0,0 +1,206 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.model.Descriptor;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import hudson.slaves.NodeProvisioner;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cloud starting registered virtual machines on demand.
+ * <p/>
+ * When a label has queued builds, {@link NodeProvisioner} asks the cloud for capacity.
+ * A free machine of a matching template is started on master by the global setup
+ * command or the VBoxManage driver and added as a slave once it passes the global readiness probe.
+ * Slaves that fail to launch are relaunched by {@link VBoxCloudRetentionStrategy}. Idle slaves are terminated
+ * by their retention strategy, the machine is turned off by the global teardown command.
+ * A machine is free when there is no node with its name.
+ *
+ * @author theirix
+ */
+public class VBoxCloud extends Cloud {
+
+    private final static Logger LOGGER = Logger.getLogger(VBoxCloud.class.getName());
+
+    private final List<VBoxCloudTemplate> templates;
+
+    /* Machines being started, they have no node yet */
+    private transient Set<String> provisioning;
+
+    @DataBoundConstructor
+    public VBoxCloud(String name, List<VBoxCloudTemplate> templates) {
+        super(name);
+        this.templates = templates;
+    }
+
+    public List<VBoxCloudTemplate> getTemplates() {
+        return templates != null ? templates : new ArrayList<VBoxCloudTemplate>();
+    }
+
+    @Override
+    public boolean canProvision(Label label) {
+        for (VBoxCloudTemplate template : getTemplates()) {
+            if (template.matches(label))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Collection<NodeProvisioner.PlannedNode> provision(Label label, int excessWorkload) {
+        List<NodeProvisioner.PlannedNode> result = new ArrayList<NodeProvisioner.PlannedNode>();
+        for (final VBoxCloudTemplate template : getTemplates()) {
+            if (!template.matches(label))
+                continue;
+            while (excessWorkload > 0) {
+                final String machine = reserve(template);
+                if (machine == null)
+                    break;
+                LOGGER.log(Level.INFO, "Provisioning machine {0} for label {1}", new Object[]{machine, label});
+                result.add(new NodeProvisioner.PlannedNode(machine,
+                        VBoxExecutors.boots().submit(new Callable<Node>() {
+                            public Node call() throws Exception {
+                                TaskListener listener = VBoxCommands.logListener(LOGGER);
+                                try {
+                                    start(machine, listener);
+                                    return template.createSlave(name, machine);
+                                } catch (Exception e) {
+                                    /* Machine may be running without a slave */
+                                    stop(machine, listener);
+                                    throw e;
+                                }
+                            }
+                        }), template.getNumExecutors()));
+                excessWorkload -= template.getNumExecutors();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Pick a free machine of a template
+     *
+     * @return machine name or null if all machines are in use
+     */
+    private synchronized String reserve(VBoxCloudTemplate template) {
+        if (provisioning == null)
+            provisioning = new HashSet<String>();
+        /* Started machines are tracked by their nodes */
+        for (Iterator<String> it = provisioning.iterator(); it.hasNext(); ) {
+            if (Jenkins.getInstance().getNode(it.next()) != null)
+                it.remove();
+        }
+        for (String machine : template.getMachineList()) {
+            if (Jenkins.getInstance().getNode(machine) == null && !provisioning.contains(machine)) {
+                provisioning.add(machine);
+                return machine;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void unreserve(String machine) {
+        if (provisioning != null)
+            provisioning.remove(machine);
+    }
+
+    private static VBoxBuildWrapper.DescriptorImpl wrapperDescriptor() {
+        return Jenkins.getInstance().getDescriptorByType(VBoxBuildWrapper.DescriptorImpl.class);
+    }
+
+    /**
+     * Start a machine by the global setup command or VBoxManage
+     * through host admission control and the boot gate.
+     * Returns when the guest passes the global readiness probe, if any.
+     */
+    void start(String machine, final TaskListener listener) throws IOException, InterruptedException {
+        final Launcher launcher = Jenkins.getInstance().createLauncher(listener);
+        boolean success = VBoxBoot.boot("master", launcher, Collections.singletonList(machine),
+                new VBoxBoot.Task() {
+                    public boolean boot(String machine) throws Exception {
+                        List<String> machines = Collections.singletonList(machine);
+                        boolean started;
+                        if (wrapperDescriptor().isUseVBoxManage()) {
+                            VBoxManageDriver driver = new VBoxManageDriver(wrapperDescriptor().getVboxManagePath(),
+                                    launcher, listener);
+                            started = VBoxManageDriver.report(driver.runAll(machines,
+                                    VBoxManageDriver.Operation.START, 1), listener);
+                        } else {
+                            started = VBoxCommands.run(wrapperDescriptor().getSetupCommand(), machines,
+                                    launcher, listener);
+                        }
+                        return started && awaitReady(machine, launcher, listener);
+                    }
+                }, listener);
+        if (!success)
+            throw new IOException("Cannot start machine " + machine);
+    }
+
+    /**
+     * Wait until a started guest passes the global readiness probe,
+     * so the slave is not launched against a booting guest
+     *
+     * @return false if the guest is not ready before the connect deadline
+     */
+    private static boolean awaitReady(String machine, Launcher launcher, TaskListener listener)
+            throws InterruptedException {
+        VBoxProbe probe = VBoxProbe.parse(wrapperDescriptor().getReadinessProbe(),
+                new VBoxManageDriver(wrapperDescriptor().getVboxManagePath(), VBoxCommands.quiet(launcher), listener));
+        if (probe == null)
+            return true;
+        listener.getLogger().format("Waiting for %s to pass readiness probe: %s\n", machine, probe);
+        long started = System.currentTimeMillis();
+        boolean ready = probe.await(machine, wrapperDescriptor().getReconnectPolicy().getDeadlineMillis());
+        if (ready)
+            VBoxMetrics.get().record(machine, VBoxMetrics.Phase.GUEST_READY, System.currentTimeMillis() - started);
+        else
+            listener.error("Machine " + machine + " is not ready before the connect deadline");
+        return ready;
+    }
+
+    /**
+     * Turn off a machine by the global teardown command or VBoxManage
+     */
+    void stop(String machine, TaskListener listener) throws InterruptedException {
+        Launcher launcher = Jenkins.getInstance().createLauncher(listener);
+        List<String> machines = Collections.singletonList(machine);
+        try {
+            if (wrapperDescriptor().isUseVBoxManage()) {
+                VBoxManageDriver driver = new VBoxManageDriver(wrapperDescriptor().getVboxManagePath(),
+                        launcher, listener);
+                VBoxManageDriver.report(driver.runAll(machines, VBoxManageDriver.Operation.POWEROFF, 1),
+                        listener);
+            } else {
+                VBoxCommands.run(wrapperDescriptor().getTeardownCommand(), machines, launcher, listener);
+            }
+        } finally {
+            unreserve(machine);
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<Cloud> {
+
+        @Override
+        public String getDisplayName() {
+            return "VirtualBox";
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.slaves.AbstractCloudComputer;
+import hudson.slaves.CloudRetentionStrategy;
+
+/**
+ * Retention of {@link VBoxCloud} slaves: idle slaves are terminated,
+ * offline slaves are relaunched every check, e.g. when the first launch
+ * was attempted while the guest was still booting.
+ *
+ * @author theirix
+ */
+public class VBoxCloudRetentionStrategy extends CloudRetentionStrategy {
+
+    public VBoxCloudRetentionStrategy(int idleMinutes) {
+        super(idleMinutes);
+    }
+
+    @Override
+    public synchronized long check(AbstractCloudComputer c) {
+        if (c.isOffline() && !c.isConnecting() && !c.isTemporarilyOffline() && c.isLaunchSupported())
+            c.connect(false);
+        return super.check(c);
+    }
+}
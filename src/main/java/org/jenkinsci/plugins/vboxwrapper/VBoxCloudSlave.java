@@ -0,0 +1,68 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.Extension;
+import hudson.model.Descriptor;
+import hudson.model.TaskListener;
+import hudson.slaves.AbstractCloudComputer;
+import hudson.slaves.AbstractCloudSlave;
+import hudson.slaves.ComputerLauncher;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.RetentionStrategy;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Slave of a virtual machine started by {@link VBoxCloud}.
+ * The machine is turned off when the slave is terminated.
+ *
+ * @author theirix
+ */
+public class VBoxCloudSlave extends AbstractCloudSlave {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String cloudName;
+
+    public VBoxCloudSlave(String cloudName, String name, String remoteFS, String numExecutors, Mode mode,
+                          String labelString, ComputerLauncher launcher, RetentionStrategy retentionStrategy,
+                          List<? extends NodeProperty<?>> nodeProperties)
+            throws Descriptor.FormException, IOException {
+        super(name, "VirtualBox machine of cloud " + cloudName, remoteFS, numExecutors, mode,
+                labelString, launcher, retentionStrategy, nodeProperties);
+        this.cloudName = cloudName;
+    }
+
+    public String getCloudName() {
+        return cloudName;
+    }
+
+    @Override
+    public AbstractCloudComputer createComputer() {
+        return new AbstractCloudComputer<VBoxCloudSlave>(this);
+    }
+
+    @Override
+    protected void _terminate(TaskListener listener) throws IOException, InterruptedException {
+        VBoxCloud cloud = (VBoxCloud) Jenkins.getInstance().getCloud(cloudName);
+        if (cloud != null)
+            cloud.stop(getNodeName(), listener);
+        else
+            listener.error("Cloud " + cloudName + " is not found, machine " + getNodeName() + " is left running");
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends SlaveDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return "VirtualBox cloud machine";
+        }
+
+        @Override
+        public boolean isInstantiable() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.model.Descriptor;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.labels.LabelAtom;
+import hudson.slaves.CommandLauncher;
+import hudson.slaves.ComputerLauncher;
+import hudson.slaves.JNLPLauncher;
+import hudson.slaves.NodeProperty;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Set of registered equivalent virtual machines provisioned by {@link VBoxCloud}.
+ * A slave named after a machine is created when the machine is started.
+ *
+ * @author theirix
+ */
+public class VBoxCloudTemplate {
+
+    /* Default idle time before a slave is terminated */
+    private static final int DEFAULT_IDLE_MINUTES = 10;
+
+    private final String machines;
+    private final String labelString;
+
+    /* Whether unlabeled builds may use slaves of the template, null in old configurations */
+    private final Node.Mode mode;
+
+    private final String remoteFS;
+    private final int numExecutors;
+    private final int idleMinutes;
+    private final String launchCommand;
+
+    @DataBoundConstructor
+    public VBoxCloudTemplate(String machines, String labelString, Node.Mode mode, String remoteFS,
+                             int numExecutors, int idleMinutes, String launchCommand) {
+        this.machines = machines;
+        this.labelString = labelString;
+        this.mode = mode;
+        this.remoteFS = remoteFS;
+        this.numExecutors = numExecutors;
+        this.idleMinutes = idleMinutes;
+        this.launchCommand = launchCommand;
+    }
+
+    /**
+     * Machine names separated by commas or whitespace
+     */
+    public String getMachines() {
+        return machines;
+    }
+
+    public List<String> getMachineList() {
+        List<String> result = new ArrayList<String>();
+        if (machines == null)
+            return result;
+        for (String machine : machines.trim().split("[,\\s]+")) {
+            if (!machine.equals(""))
+                result.add(machine);
+        }
+        return result;
+    }
+
+    public String getLabelString() {
+        return labelString;
+    }
+
+    /**
+     * {@link Node.Mode#NORMAL} lets unlabeled builds start machines,
+     * {@link Node.Mode#EXCLUSIVE} keeps them for builds tied to the labels
+     */
+    public Node.Mode getMode() {
+        return mode != null ? mode : Node.Mode.EXCLUSIVE;
+    }
+
+    public String getRemoteFS() {
+        return remoteFS;
+    }
+
+    public int getNumExecutors() {
+        return numExecutors > 0 ? numExecutors : 1;
+    }
+
+    public int getIdleMinutes() {
+        return idleMinutes > 0 ? idleMinutes : DEFAULT_IDLE_MINUTES;
+    }
+
+    /**
+     * Command run on master to launch an agent, the machine name is appended.
+     * Agents connect by JNLP if empty.
+     */
+    public String getLaunchCommand() {
+        return launchCommand;
+    }
+
+    /**
+     * Template provides slaves for a label, a null label only in the normal mode
+     */
+    public boolean matches(Label label) {
+        if (label == null)
+            return getMode() == Node.Mode.NORMAL;
+        Set<LabelAtom> atoms = Label.parse(labelString);
+        return label.matches(atoms);
+    }
+
+    Node createSlave(String cloudName, String machine) throws IOException {
+        ComputerLauncher launcher = launchCommand == null || launchCommand.trim().equals("")
+                ? new JNLPLauncher()
+                : new CommandLauncher(launchCommand.trim() + " " + machine);
+        try {
+            return new VBoxCloudSlave(cloudName, machine, remoteFS, String.valueOf(getNumExecutors()),
+                    getMode(), labelString, launcher, new VBoxCloudRetentionStrategy(getIdleMinutes()),
+                    new ArrayList<NodeProperty<?>>());
+        } catch (Descriptor.FormException e) {
+            throw new IOException("Cannot create slave " + machine, e);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.Launcher;
+import hudson.console.LineTransformationOutputStream;
+import hudson.model.BuildListener;
+import hudson.model.StreamBuildListener;
+import hudson.model.TaskListener;
+import hudson.remoting.LocalChannel;
+import hudson.remoting.VirtualChannel;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * Global setup/teardown commands outside of a build and listeners
+ * for work running in the background
+ *
+ * @author theirix
+ */
+public final class VBoxCommands {
+
+    private VBoxCommands() {
+    }
+
+    /**
+     * Command line of a setup/teardown command, machine names are appended as parameters
+     */
+    public static String commandLine(String body, List<String> machines) {
+        StringBuilder sb = new StringBuilder(body);
+        for (String slave : machines) {
+            sb.append(" ");
+            sb.append(slave);
+        }
+        return sb.toString();
+    }
+
+    public static boolean isWindows() {
+        return System.getProperty("os.name").toLowerCase(Locale.ENGLISH).contains("windows");
+    }
+
+    /**
+     * Run a setup/teardown command by the system shell without a build
+     *
+     * @return true if the command succeeded or is not configured
+     */
+    public static boolean run(String body, List<String> machines, Launcher launcher, TaskListener listener)
+            throws InterruptedException {
+        if (body == null || body.equals(""))
+            return true;
+        String commandLine = commandLine(body, machines);
+        listener.getLogger().println("Expect to launch command " + commandLine);
+        try {
+            int exitCode = launcher.launch()
+                    .cmds(isWindows() ? new String[]{"cmd", "/c", commandLine} : new String[]{"sh", "-c", commandLine})
+                    .stdout(listener.getLogger()).join();
+            if (exitCode != 0)
+                listener.error("VBox command failed with exit code " + exitCode);
+            return exitCode == 0;
+        } catch (IOException e) {
+            listener.error("VBox command failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Launcher on the same node that does not print command lines,
+     * used for frequent queries
+     */
+    public static Launcher quiet(Launcher launcher) {
+        VirtualChannel channel = launcher.getChannel();
+        if (channel == null || channel instanceof LocalChannel)
+            return new Launcher.LocalLauncher(TaskListener.NULL);
+        return new Launcher.RemoteLauncher(TaskListener.NULL, channel, launcher.isUnix());
+    }
+
+    /**
+     * Listener for work outside of a build, output goes to a log
+     */
+    public static BuildListener logListener(final Logger logger) {
+        return new StreamBuildListener(new LineTransformationOutputStream() {
+            @Override
+            protected void eol(byte[] b, int len) throws IOException {
+                logger.info(new String(b, 0, len).trim());
+            }
+        });
+    }
+}
@@ -0,0 +1,31 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+
+/**
+ * Notifies {@link VBoxReadiness} about agents going online and offline
+ * and drops cached node names of {@link VBoxUtils} when nodes change
+ *
+ * @author theirix
+ */
+@Extension
+public class VBoxComputerListener extends ComputerListener {
+
+    @Override
+    public void onOnline(Computer c, TaskListener listener) {
+        VBoxReadiness.get().signal(c.getName());
+    }
+
+    @Override
+    public void onOffline(Computer c) {
+        VBoxReadiness.get().signal(c.getName());
+    }
+
+    @Override
+    public void onConfigurationChange() {
+        VBoxUtils.invalidate();
+    }
+}
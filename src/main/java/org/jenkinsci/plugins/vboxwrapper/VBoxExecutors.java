@@ -0,0 +1,136 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Plugin-wide bounded executor for connect, disconnect and VBoxManage tasks,
+ * an executor for background boots and a scheduler for delayed teardown.
+ * <p/>
+ * Background boots wait for tasks of the shared executor, so they must never run on it:
+ * otherwise a burst of boots occupies every worker and waits for tasks queued behind them.
+ * <p/>
+ * Started and stopped by {@link PluginImpl}. Idle threads are released
+ * after a minute so the pool does not hold threads between builds.
+ *
+ * @author theirix
+ */
+public final class VBoxExecutors {
+
+    private final static Logger LOGGER = Logger.getLogger(VBoxExecutors.class.getName());
+
+    /* Max number of worker threads, may be overridden by a system property */
+    private static final int POOL_SIZE = Integer.getInteger(VBoxExecutors.class.getName() + ".poolSize", 32);
+
+    /* Idle worker keep alive */
+    private static final long KEEP_ALIVE = 60;
+
+    private static ThreadPoolExecutor executor;
+
+    private static ThreadPoolExecutor boots;
+
+    private static ScheduledThreadPoolExecutor scheduler;
+
+    private VBoxExecutors() {
+    }
+
+    /**
+     * @return shared executor, created on first use
+     */
+    public static synchronized ExecutorService get() {
+        if (executor == null || executor.isShutdown())
+            start();
+        return executor;
+    }
+
+    /**
+     * @return executor for boots outside of a build, created on first use.
+     * Its tasks may wait for tasks of the shared executor but not for each other.
+     */
+    public static synchronized ExecutorService boots() {
+        if (boots == null || boots.isShutdown())
+            start();
+        return boots;
+    }
+
+    /**
+     * @return shared scheduler for delayed tasks, created on first use
+     */
+    public static synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null || scheduler.isShutdown())
+            start();
+        return scheduler;
+    }
+
+    static synchronized void start() {
+        if (executor == null || executor.isShutdown()) {
+            executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), threadFactory("VBoxWrapper worker"));
+            executor.allowCoreThreadTimeOut(true);
+            LOGGER.info("Started VBoxWrapper executor with " + POOL_SIZE + " threads");
+        }
+        if (boots == null || boots.isShutdown()) {
+            boots = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), threadFactory("VBoxWrapper boot"));
+            boots.allowCoreThreadTimeOut(true);
+        }
+        if (scheduler == null || scheduler.isShutdown()) {
+            scheduler = new ScheduledThreadPoolExecutor(1, threadFactory("VBoxWrapper scheduler"));
+        }
+    }
+
+    static synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (boots != null) {
+            boots.shutdownNow();
+            boots = null;
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        LOGGER.info("Stopped VBoxWrapper executor");
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        final AtomicInteger counter = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + " #" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * @return number of tasks waiting for a worker
+     */
+    public static synchronized int getQueueDepth() {
+        return executor != null ? executor.getQueue().size() : 0;
+    }
+
+    /**
+     * @return number of workers running tasks
+     */
+    public static synchronized int getActiveCount() {
+        return executor != null ? executor.getActiveCount() : 0;
+    }
+
+    /**
+     * @return number of live worker threads
+     */
+    public static synchronized int getPoolSize() {
+        return executor != null ? executor.getPoolSize() : 0;
+    }
+}
@@ -0,0 +1,117 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed buckets in milliseconds
+ *
+ * @author theirix
+ */
+@ExportedBean
+public final class VBoxHistogram {
+
+    /* Upper bounds of buckets, the last bucket is unbounded */
+    private static final long[] BOUNDS = {
+            100, 250, 500, 1000, 2500, 5000, 10000, 20000, 30000, 45000,
+            60000, 90000, 120000, 180000, 300000, 600000, 1200000
+    };
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Add a sample
+     *
+     * @param millis latency
+     */
+    public void record(long millis) {
+        millis = Math.max(0, millis);
+        int pos = Arrays.binarySearch(BOUNDS, millis);
+        counts.incrementAndGet(pos >= 0 ? pos : -pos - 1);
+        count.incrementAndGet();
+        sum.addAndGet(millis);
+        long current;
+        while (millis > (current = max.get()) && !max.compareAndSet(current, millis)) {
+            /* retry */
+        }
+    }
+
+    @Exported
+    public long getCount() {
+        return count.get();
+    }
+
+    @Exported
+    public long getMean() {
+        long n = count.get();
+        return n > 0 ? sum.get() / n : 0;
+    }
+
+    @Exported
+    public long getMax() {
+        return max.get();
+    }
+
+    @Exported
+    public long getP50() {
+        return percentile(0.5);
+    }
+
+    @Exported
+    public long getP90() {
+        return percentile(0.9);
+    }
+
+    @Exported
+    public long getP99() {
+        return percentile(0.99);
+    }
+
+    /**
+     * @return upper bounds of buckets in milliseconds
+     */
+    @Exported
+    public long[] getBounds() {
+        return BOUNDS.clone();
+    }
+
+    /**
+     * @return sample counts per bucket, one more than bounds
+     */
+    @Exported
+    public long[] getCounts() {
+        long[] result = new long[counts.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Estimate a percentile as an upper bound of its bucket
+     */
+    private long percentile(double q) {
+        long[] snapshot = getCounts();
+        long total = 0;
+        for (long c : snapshot) {
+            total += c;
+        }
+        if (total == 0)
+            return 0;
+        long threshold = (long) Math.ceil(q * total);
+        long cumulative = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= threshold)
+                return i < BOUNDS.length ? Math.min(BOUNDS[i], getMax()) : getMax();
+        }
+        return getMax();
+    }
+}
@@ -0,0 +1,112 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Free memory and load of a Linux host read from /proc
+ *
+ * @author theirix
+ */
+public final class VBoxHostResources {
+
+    private final static Logger LOGGER = Logger.getLogger(VBoxHostResources.class.getName());
+
+    private final long availableMemory;
+    private final double load;
+    private final int cores;
+
+    VBoxHostResources(long availableMemory, double load, int cores) {
+        this.availableMemory = availableMemory;
+        this.load = load;
+        this.cores = cores;
+    }
+
+    /**
+     * @return available memory in megabytes
+     */
+    public long getAvailableMemory() {
+        return availableMemory;
+    }
+
+    /**
+     * @return one minute load average
+     */
+    public double getLoad() {
+        return load;
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    /**
+     * Read resources of a host
+     *
+     * @param channel channel to the host, null for master
+     * @return resources or null if host has no /proc or it cannot be read or parsed
+     */
+    public static VBoxHostResources read(VirtualChannel channel) throws IOException, InterruptedException {
+        FilePath meminfo = new FilePath(channel, "/proc/meminfo");
+        FilePath loadavg = new FilePath(channel, "/proc/loadavg");
+        FilePath cpuinfo = new FilePath(channel, "/proc/cpuinfo");
+        try {
+            if (!meminfo.exists() || !loadavg.exists() || !cpuinfo.exists())
+                return null;
+            return parse(meminfo.readToString(), loadavg.readToString(), cpuinfo.readToString());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot read host resources", e);
+            return null;
+        }
+    }
+
+    /**
+     * Parse contents of /proc/meminfo, /proc/loadavg and /proc/cpuinfo
+     *
+     * @return resources or null if contents are malformed
+     */
+    static VBoxHostResources parse(String meminfo, String loadavg, String cpuinfo) {
+        try {
+            long available = -1;
+            long free = 0;
+            for (String line : meminfo.split("\n")) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length < 2)
+                    continue;
+                /* MemAvailable is absent on old kernels */
+                if (fields[0].equals("MemAvailable:"))
+                    available = Long.parseLong(fields[1]);
+                else if (fields[0].equals("MemFree:") || fields[0].equals("Buffers:")
+                        || fields[0].equals("Cached:"))
+                    free += Long.parseLong(fields[1]);
+            }
+            if (available < 0)
+                available = free;
+
+            double load = Double.parseDouble(loadavg.trim().split("\\s+")[0]);
+
+            int cores = 0;
+            for (String line : cpuinfo.split("\n")) {
+                if (line.startsWith("processor"))
+                    cores++;
+            }
+
+            return new VBoxHostResources(available / 1024, load, Math.max(1, cores));
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Cannot parse host resources", e);
+            return null;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            LOGGER.log(Level.WARNING, "Cannot parse host resources", e);
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d MB available, load %.2f on %d cores", availableMemory, load, cores);
+    }
+}
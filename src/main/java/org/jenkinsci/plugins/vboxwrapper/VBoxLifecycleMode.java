@@ -0,0 +1,47 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+/**
+ * How virtual machines are brought up at setup and down at teardown
+ *
+ * @author theirix
+ */
+public enum VBoxLifecycleMode {
+
+    /**
+     * Global setup/teardown commands or the built-in VBoxManage driver
+     */
+    COMMAND("Setup and teardown commands"),
+
+    /**
+     * Restore a snapshot and start at setup, power off at teardown
+     */
+    SNAPSHOT("Restore snapshot"),
+
+    /**
+     * Resume from a saved state at setup, save state at teardown
+     */
+    SAVESTATE("Save and resume state");
+
+    private final String displayName;
+
+    VBoxLifecycleMode(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * Parse persisted or submitted value, {@link #COMMAND} by default
+     */
+    public static VBoxLifecycleMode fromString(String value) {
+        if (value != null) {
+            for (VBoxLifecycleMode mode : values()) {
+                if (mode.name().equals(value))
+                    return mode;
+            }
+        }
+        return COMMAND;
+    }
+}
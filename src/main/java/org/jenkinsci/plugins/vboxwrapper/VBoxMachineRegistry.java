@@ -0,0 +1,214 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reference-counted registry of builds using virtual machines.
+ * <p/>
+ * The first user of a machine boots it, later users attach to it and
+ * only the last user tears it down. A machine being torn down cannot be
+ * acquired until its teardown is over.
+ * <p/>
+ * The last user may leave a machine lingering: it is kept running
+ * until a delayed teardown, and a new user cancels the teardown.
+ *
+ * @author theirix
+ */
+public final class VBoxMachineRegistry {
+
+    private static final VBoxMachineRegistry INSTANCE = new VBoxMachineRegistry();
+
+    /* Users by machine */
+    private final Map<String, List<String>> users = new HashMap<String, List<String>>();
+
+    /* Machines being torn down by their last user */
+    private final Set<String> stopping = new HashSet<String>();
+
+    /* Delayed teardown of idle running machines */
+    private final Map<String, Future<?>> lingering = new HashMap<String, Future<?>>();
+
+    /**
+     * How a machine is acquired
+     */
+    public enum Use {
+        /* First user, machine must be booted */
+        FIRST,
+        /* Machine is used by other builds */
+        SHARED,
+        /* Idle machine is kept running by a previous user */
+        WARM
+    }
+
+    /* Tests use their own registry */
+    VBoxMachineRegistry() {
+    }
+
+    public static VBoxMachineRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Register a user of a machine, waits while the machine is being torn down.
+     * Delayed teardown of a lingering machine is cancelled.
+     *
+     * @return how the machine is acquired
+     */
+    public synchronized Use acquire(String machine, String user) throws InterruptedException {
+        while (stopping.contains(machine))
+            wait();
+        return register(machine, user);
+    }
+
+    private Use register(String machine, String user) {
+        List<String> list = users.get(machine);
+        if (list == null) {
+            list = new ArrayList<String>();
+            users.put(machine, list);
+        }
+        list.add(user);
+        Future<?> teardown = lingering.remove(machine);
+        if (teardown != null) {
+            teardown.cancel(false);
+            return Use.WARM;
+        }
+        return list.size() == 1 ? Use.FIRST : Use.SHARED;
+    }
+
+    /**
+     * Register a user of an idle machine without waiting
+     *
+     * @return false if the machine is used, lingering or being torn down
+     */
+    public synchronized boolean tryAcquire(String machine, String user) {
+        if (stopping.contains(machine) || lingering.containsKey(machine) || users.containsKey(machine))
+            return false;
+        List<String> list = new ArrayList<String>();
+        list.add(user);
+        users.put(machine, list);
+        return true;
+    }
+
+    /**
+     * Register a user of the least loaded machines. Machines are ranked and acquired under
+     * one lock, so concurrent builds do not pick the same idle machine.
+     * <p/>
+     * Load of a machine is its users plus busy executors of its slave. Among equally loaded
+     * machines lingering ones are preferred as they are already running. Machines being
+     * torn down are skipped.
+     *
+     * @param count number of machines, less are acquired if not enough candidates are available
+     * @param busy busy executors by machine
+     * @param idleOnly acquire only machines without users
+     * @return how machines are acquired, in rank order
+     */
+    public synchronized Map<String, Use> acquireLeastLoaded(List<String> candidates, int count, String user,
+                                                            Map<String, Integer> busy, boolean idleOnly) {
+        List<String> ranked = new ArrayList<String>();
+        final Map<String, Integer> load = new HashMap<String, Integer>();
+        for (String machine : candidates) {
+            if (stopping.contains(machine) || (idleOnly && !isIdle(machine)) || load.containsKey(machine))
+                continue;
+            List<String> list = users.get(machine);
+            Integer executors = busy.get(machine);
+            load.put(machine, (list != null ? list.size() : 0) + (executors != null ? executors : 0));
+            ranked.add(machine);
+        }
+        /* Stable sort keeps candidates ordered within a rank */
+        Collections.sort(ranked, new Comparator<String>() {
+            public int compare(String a, String b) {
+                int result = load.get(a).compareTo(load.get(b));
+                if (result != 0)
+                    return result;
+                return (lingering.containsKey(a) ? 0 : 1) - (lingering.containsKey(b) ? 0 : 1);
+            }
+        });
+
+        Map<String, Use> result = new LinkedHashMap<String, Use>();
+        for (String machine : ranked.subList(0, Math.min(count, ranked.size()))) {
+            result.put(machine, register(machine, user));
+        }
+        return result;
+    }
+
+    /**
+     * Unregister a user of a machine. The last user must call {@link #stopped}
+     * when its teardown is over.
+     *
+     * @return true if it was the last user
+     */
+    public synchronized boolean release(String machine, String user) {
+        List<String> list = users.get(machine);
+        if (list == null || !list.remove(user))
+            return false;
+        if (!list.isEmpty())
+            return false;
+        users.remove(machine);
+        stopping.add(machine);
+        return true;
+    }
+
+    /**
+     * Keep a released machine running until a delayed teardown
+     *
+     * @param teardown teardown task, it must call {@link #expire} at first
+     */
+    public synchronized void linger(String machine, Runnable teardown, long delay, TimeUnit unit) {
+        stopping.remove(machine);
+        lingering.put(machine, VBoxExecutors.scheduler().schedule(teardown, delay, unit));
+        notifyAll();
+    }
+
+    /**
+     * Start delayed teardown of a lingering machine
+     *
+     * @return false if the machine was acquired again and must not be torn down
+     */
+    public synchronized boolean expire(String machine) {
+        if (!lingering.containsKey(machine))
+            return false;
+        lingering.remove(machine);
+        stopping.add(machine);
+        return true;
+    }
+
+    /**
+     * @return true if a machine has no users, is not lingering and is not being torn down
+     */
+    public synchronized boolean isIdle(String machine) {
+        return !users.containsKey(machine) && !lingering.containsKey(machine) && !stopping.contains(machine);
+    }
+
+    /**
+     * @return machines kept running until a delayed teardown
+     */
+    public synchronized Set<String> getLingering() {
+        return new HashSet<String>(lingering.keySet());
+    }
+
+    /**
+     * Teardown of machines is over, they may be acquired again
+     */
+    public synchronized void stopped(Collection<String> machines) {
+        stopping.removeAll(machines);
+        notifyAll();
+    }
+
+    /**
+     * @return current users of a machine
+     */
+    public synchronized List<String> getUsers(String machine) {
+        List<String> list = users.get(machine);
+        return list != null ? new ArrayList<String>(list) : new ArrayList<String>();
+    }
+}
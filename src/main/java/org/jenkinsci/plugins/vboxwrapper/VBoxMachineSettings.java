@@ -0,0 +1,73 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Per machine settings of {@link VBoxBuildWrapper}.
+ * Empty connect settings fall back to global defaults.
+ *
+ * @author theirix
+ */
+public class VBoxMachineSettings {
+
+    private final String name;
+    private final String snapshot;
+    private final String connectInitialDelay;
+    private final String connectInterval;
+    private final String connectBackoff;
+    private final String connectMaxInterval;
+    private final String connectJitter;
+    private final String connectDeadline;
+    private final String readinessProbe;
+
+    @DataBoundConstructor
+    public VBoxMachineSettings(String name, String snapshot, String connectInitialDelay,
+                               String connectInterval, String connectBackoff, String connectMaxInterval,
+                               String connectJitter, String connectDeadline, String readinessProbe) {
+        this.name = name;
+        this.snapshot = snapshot;
+        this.connectInitialDelay = connectInitialDelay;
+        this.connectInterval = connectInterval;
+        this.connectBackoff = connectBackoff;
+        this.connectMaxInterval = connectMaxInterval;
+        this.connectJitter = connectJitter;
+        this.connectDeadline = connectDeadline;
+        this.readinessProbe = readinessProbe;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSnapshot() {
+        return snapshot;
+    }
+
+    public String getConnectInitialDelay() {
+        return connectInitialDelay;
+    }
+
+    public String getConnectInterval() {
+        return connectInterval;
+    }
+
+    public String getConnectBackoff() {
+        return connectBackoff;
+    }
+
+    public String getConnectMaxInterval() {
+        return connectMaxInterval;
+    }
+
+    public String getConnectJitter() {
+        return connectJitter;
+    }
+
+    public String getConnectDeadline() {
+        return connectDeadline;
+    }
+
+    public String getReadinessProbe() {
+        return readinessProbe;
+    }
+}
@@ -0,0 +1,400 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.Launcher;
+import hudson.model.TaskListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+/**
+ * Built-in driver that calls VBoxManage directly for every virtual machine
+ * instead of appending all machines to a single setup/teardown command.
+ * <p/>
+ * Machine names are the names of the Jenkins nodes.
+ *
+ * @author theirix
+ */
+public class VBoxManageDriver {
+
+    /**
+     * Work performed for a single virtual machine
+     */
+    public interface Task {
+        Result run(VBoxManageDriver driver, String vm) throws InterruptedException;
+    }
+
+    /**
+     * Operation to perform on a single virtual machine
+     */
+    public enum Operation implements Task {
+        START("startvm", "%s", "--type", "headless"),
+        POWEROFF("controlvm", "%s", "poweroff"),
+        SAVESTATE("controlvm", "%s", "savestate");
+
+        private final String[] args;
+
+        Operation(String... args) {
+            this.args = args;
+        }
+
+        List<String> arguments(String vm) {
+            List<String> result = new ArrayList<String>();
+            for (String arg : args) {
+                result.add(String.format(arg, vm));
+            }
+            return result;
+        }
+
+        public Result run(VBoxManageDriver driver, String vm) throws InterruptedException {
+            return driver.run(vm, arguments(vm));
+        }
+    }
+
+    /**
+     * Power off a machine if needed, restore a snapshot and start the machine.
+     * Restoring a saved-state snapshot resumes the machine on start.
+     */
+    public static final class RestoreSnapshot implements Task {
+        private final Map<String, String> snapshots;
+
+        /**
+         * @param snapshots snapshot name by machine, current snapshot is used if absent
+         */
+        public RestoreSnapshot(Map<String, String> snapshots) {
+            this.snapshots = snapshots;
+        }
+
+        public Result run(VBoxManageDriver driver, String vm) throws InterruptedException {
+            long started = System.currentTimeMillis();
+            Result result;
+            if (RUNNING_STATES.contains(driver.getState(vm))) {
+                result = driver.timed(vm, "poweroff", Operation.POWEROFF.arguments(vm));
+                if (!result.isSuccess())
+                    return result;
+            }
+            String snapshot = snapshots.get(vm);
+            result = snapshot == null || snapshot.equals("")
+                    ? driver.timed(vm, "restore current snapshot", "snapshot", vm, "restorecurrent")
+                    : driver.timed(vm, "restore snapshot " + snapshot, "snapshot", vm, "restore", snapshot);
+            if (!result.isSuccess())
+                return result;
+            result = driver.timed(vm, "start", Operation.START.arguments(vm));
+            return new Result(vm, result.getExitCode(), System.currentTimeMillis() - started);
+        }
+    }
+
+    /**
+     * Start a machine unless it is already running.
+     * Starting a machine with a saved state resumes it.
+     */
+    public static final class Resume implements Task {
+        public Result run(VBoxManageDriver driver, String vm) throws InterruptedException {
+            long started = System.currentTimeMillis();
+            String state = driver.getState(vm);
+            if (RUNNING_STATES.contains(state)) {
+                synchronized (driver.listener) {
+                    driver.listener.getLogger().format("[%s] machine is already %s\n", vm, state);
+                }
+                return new Result(vm, 0, System.currentTimeMillis() - started);
+            }
+            Result result = driver.timed(vm, "saved".equals(state) ? "resume" : "cold start",
+                    Operation.START.arguments(vm));
+            return new Result(vm, result.getExitCode(), System.currentTimeMillis() - started);
+        }
+    }
+
+    /**
+     * Outcome of a VBoxManage call for a single machine
+     */
+    public static final class Result {
+        private final String vm;
+        private final int exitCode;
+        private final long millis;
+
+        Result(String vm, int exitCode, long millis) {
+            this.vm = vm;
+            this.exitCode = exitCode;
+            this.millis = millis;
+        }
+
+        public String getVm() {
+            return vm;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public boolean isSuccess() {
+            return exitCode == 0;
+        }
+    }
+
+    /* VMState values of a machine that must be powered off before restore */
+    private static final List<String> RUNNING_STATES = Arrays.asList("running", "paused", "stuck");
+
+    /* Interval between state queries while waiting for a state, milliseconds */
+    private static final long STATE_POLL_INTERVAL = 250;
+
+    private final String executable;
+    private final Launcher launcher;
+    private final TaskListener listener;
+
+    public VBoxManageDriver(String executable, Launcher launcher, TaskListener listener) {
+        this.executable = executable;
+        this.launcher = launcher;
+        this.listener = listener;
+    }
+
+    /**
+     * Run VBoxManage with given arguments for a machine.
+     * Output is collected and printed at once to keep parallel logs readable.
+     *
+     * @return exit code and timing
+     */
+    public Result run(String vm, List<String> args) throws InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long started = System.currentTimeMillis();
+        int exitCode = launch(vm, args, out);
+        Result result = new Result(vm, exitCode, System.currentTimeMillis() - started);
+
+        synchronized (listener) {
+            for (String line : out.toString().split("\\r?\\n")) {
+                if (line.length() > 0)
+                    listener.getLogger().format("[%s] %s\n", vm, line);
+            }
+        }
+        return result;
+    }
+
+    public Result run(String vm, Operation operation) throws InterruptedException {
+        return run(vm, operation.arguments(vm));
+    }
+
+    public Result run(String vm, String... args) throws InterruptedException {
+        return run(vm, Arrays.asList(args));
+    }
+
+    /**
+     * Run VBoxManage and print timing of the step
+     *
+     * @param step human readable step name
+     */
+    public Result timed(String vm, String step, List<String> args) throws InterruptedException {
+        Result result = run(vm, args);
+        synchronized (listener) {
+            listener.getLogger().format("[%s] %s: exit code %d in %d ms\n",
+                    vm, step, result.getExitCode(), result.getMillis());
+        }
+        return result;
+    }
+
+    public Result timed(String vm, String step, String... args) throws InterruptedException {
+        return timed(vm, step, Arrays.asList(args));
+    }
+
+    /**
+     * Query machine properties with showvminfo without logging them
+     *
+     * @return machine readable properties, empty if machine is unknown
+     */
+    public Map<String, String> getInfo(String vm) throws InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (launch(vm, Arrays.asList("showvminfo", vm, "--machinereadable"), out) != 0)
+            return new HashMap<String, String>();
+        return parseInfo(out.toString());
+    }
+
+    /**
+     * Parse <tt>key="value"</tt> lines of showvminfo --machinereadable
+     */
+    static Map<String, String> parseInfo(String output) {
+        Map<String, String> info = new HashMap<String, String>();
+        for (String line : output.split("\\r?\\n")) {
+            int pos = line.indexOf('=');
+            if (pos <= 0)
+                continue;
+            info.put(unquote(line.substring(0, pos)), unquote(line.substring(pos + 1)));
+        }
+        return info;
+    }
+
+    /**
+     * @return VMState of a machine, e.g. running, poweroff, saved; null if unknown
+     */
+    public String getState(String vm) throws InterruptedException {
+        return getInfo(vm).get("VMState");
+    }
+
+    /**
+     * Wait until a machine reaches a VMState
+     *
+     * @param timeout milliseconds
+     * @return false if timeout elapsed or the state of the machine is unknown
+     */
+    public boolean awaitState(String vm, String state, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        String current;
+        while ((current = getState(vm)) != null && !current.equals(state)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                return false;
+            Thread.sleep(Math.min(STATE_POLL_INTERVAL, remaining));
+        }
+        return current != null;
+    }
+
+    /**
+     * Query a guest property without logging it
+     *
+     * @return property value or null if it is not set
+     */
+    public String getGuestProperty(String vm, String property) throws InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (launch(vm, Arrays.asList("guestproperty", "get", vm, property), out) != 0)
+            return null;
+        String result = out.toString().trim();
+        if (!result.startsWith("Value:"))
+            return null;
+        return result.substring("Value:".length()).trim();
+    }
+
+    /**
+     * Block until a guest property changes or timeout elapses
+     *
+     * @param timeout milliseconds
+     * @return new property value or null if timed out or failed
+     */
+    public String waitGuestProperty(String vm, String property, long timeout) throws InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (launch(vm, Arrays.asList("guestproperty", "wait", vm, property,
+                "--timeout", String.valueOf(timeout)), out) != 0)
+            return null;
+        return parseWaitedValue(out.toString());
+    }
+
+    /**
+     * Parse output of guestproperty wait,
+     * e.g. <tt>Name: /VirtualBox/GuestInfo/Net/0/Status, value: Up, flags:</tt>
+     *
+     * @return property value or null if output has no value
+     */
+    static String parseWaitedValue(String output) {
+        String result = output.trim();
+        int start = result.indexOf("value: ");
+        if (start < 0)
+            return null;
+        start += "value: ".length();
+        int end = result.indexOf(", flags:", start);
+        return end < 0 ? result.substring(start).trim() : result.substring(start, end);
+    }
+
+    private static String unquote(String value) {
+        value = value.trim();
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\""))
+            return value.substring(1, value.length() - 1);
+        return value;
+    }
+
+    private int launch(String vm, List<String> args, ByteArrayOutputStream out)
+            throws InterruptedException {
+        List<String> cmd = new ArrayList<String>();
+        cmd.add(executable);
+        cmd.addAll(args);
+        try {
+            return launcher.launch().cmds(cmd).stdout(out).join();
+        } catch (IOException e) {
+            synchronized (listener) {
+                listener.getLogger().format("[%s] Failed to launch %s: %s\n", vm, executable, e.getMessage());
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Perform a task for each machine in parallel
+     *
+     * @param parallelism max number of VBoxManage processes at once
+     * @return results in the order of machines
+     */
+    public List<Result> runAll(List<String> vms, final Task task, int parallelism)
+            throws InterruptedException {
+        List<Result> results = new ArrayList<Result>();
+        if (vms.isEmpty())
+            return results;
+        if (vms.size() == 1) {
+            results.add(task.run(this, vms.get(0)));
+            return results;
+        }
+
+        List<Callable<Result>> callables = new ArrayList<Callable<Result>>();
+        for (final String vm : vms) {
+            callables.add(new Callable<Result>() {
+                public Result call() throws Exception {
+                    return task.run(VBoxManageDriver.this, vm);
+                }
+            });
+        }
+
+        /* Keep at most parallelism calls on the shared executor */
+        CompletionService<Result> cs = new ExecutorCompletionService<Result>(VBoxExecutors.get());
+        List<Future<Result>> futures = new ArrayList<Future<Result>>();
+        int limit = Math.max(1, parallelism);
+        try {
+            int completed = 0;
+            for (Callable<Result> callable : callables) {
+                if (futures.size() - completed >= limit) {
+                    cs.take();
+                    completed++;
+                }
+                futures.add(cs.submit(callable));
+            }
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("VBoxManage call failed", e.getCause());
+                }
+            }
+        } finally {
+            for (Future<Result> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Print per machine exit codes and timings
+     *
+     * @return true if every call succeeded
+     */
+    public static boolean report(List<Result> results, TaskListener listener) {
+        boolean success = true;
+        for (Result result : results) {
+            if (result.isSuccess()) {
+                listener.getLogger().format("VBoxManage for %s finished in %d ms\n",
+                        result.getVm(), result.getMillis());
+            } else {
+                listener.error(String.format("VBoxManage for %s failed with exit code %d in %d ms",
+                        result.getVm(), result.getExitCode(), result.getMillis()));
+                success = false;
+            }
+        }
+        return success;
+    }
+}
@@ -0,0 +1,151 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Latency histograms per virtual machine and lifecycle phase
+ *
+ * @author theirix
+ */
+public final class VBoxMetrics {
+
+    /**
+     * Lifecycle phase of a virtual machine
+     */
+    public enum Phase {
+        SETUP_COMMAND("Setup command"),
+        VM_RUNNING("VM running"),
+        GUEST_READY("Guest ready"),
+        AGENT_ONLINE("Agent online"),
+        DISCONNECT("Disconnect"),
+        TEARDOWN_COMMAND("Teardown command");
+
+        private final String displayName;
+
+        Phase(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private static final VBoxMetrics INSTANCE = new VBoxMetrics();
+
+    /* Histograms by machine, sorted by machine name */
+    private final ConcurrentMap<String, ConcurrentMap<Phase, VBoxHistogram>> histograms =
+            new ConcurrentSkipListMap<String, ConcurrentMap<Phase, VBoxHistogram>>();
+
+    private VBoxMetrics() {
+    }
+
+    public static VBoxMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Add a latency sample
+     */
+    public void record(String machine, Phase phase, long millis) {
+        ConcurrentMap<Phase, VBoxHistogram> phases = histograms.get(machine);
+        if (phases == null) {
+            ConcurrentMap<Phase, VBoxHistogram> created = new ConcurrentHashMap<Phase, VBoxHistogram>();
+            phases = histograms.putIfAbsent(machine, created);
+            if (phases == null)
+                phases = created;
+        }
+        VBoxHistogram histogram = phases.get(phase);
+        if (histogram == null) {
+            VBoxHistogram created = new VBoxHistogram();
+            histogram = phases.putIfAbsent(phase, created);
+            if (histogram == null)
+                histogram = created;
+        }
+        histogram.record(millis);
+    }
+
+    public void record(List<String> machines, Phase phase, long millis) {
+        for (String machine : machines) {
+            record(machine, phase, millis);
+        }
+    }
+
+    /**
+     * @return metrics of all machines sorted by name
+     */
+    public List<MachineMetrics> getMachines() {
+        List<MachineMetrics> result = new ArrayList<MachineMetrics>();
+        for (Map.Entry<String, ConcurrentMap<Phase, VBoxHistogram>> entry : histograms.entrySet()) {
+            result.add(new MachineMetrics(entry.getKey(), entry.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * Forget all samples
+     */
+    public void clear() {
+        histograms.clear();
+    }
+
+    @ExportedBean(defaultVisibility = 2)
+    public static final class MachineMetrics {
+        private final String name;
+        private final Map<Phase, VBoxHistogram> phases;
+
+        MachineMetrics(String name, Map<Phase, VBoxHistogram> phases) {
+            this.name = name;
+            this.phases = phases;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public List<PhaseMetrics> getPhases() {
+            List<PhaseMetrics> result = new ArrayList<PhaseMetrics>();
+            for (Phase phase : Phase.values()) {
+                VBoxHistogram histogram = phases.get(phase);
+                if (histogram != null)
+                    result.add(new PhaseMetrics(phase, histogram));
+            }
+            return result;
+        }
+    }
+
+    @ExportedBean(defaultVisibility = 3)
+    public static final class PhaseMetrics {
+        private final Phase phase;
+        private final VBoxHistogram histogram;
+
+        PhaseMetrics(Phase phase, VBoxHistogram histogram) {
+            this.phase = phase;
+            this.histogram = histogram;
+        }
+
+        @Exported
+        public String getPhase() {
+            return phase.name();
+        }
+
+        public String getDisplayName() {
+            return phase.getDisplayName();
+        }
+
+        @Exported(inline = true)
+        public VBoxHistogram getHistogram() {
+            return histogram;
+        }
+    }
+}
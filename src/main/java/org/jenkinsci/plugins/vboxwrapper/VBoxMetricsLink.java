@@ -0,0 +1,67 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.ManagementLink;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.List;
+
+/**
+ * Management page and JSON endpoint with virtual machine latency histograms,
+ * available at <tt>/vbox-metrics</tt> and <tt>/vbox-metrics/api/json</tt>
+ *
+ * @author theirix
+ */
+@Extension
+@ExportedBean
+public class VBoxMetricsLink extends ManagementLink {
+
+    @Override
+    public String getIconFileName() {
+        return "graph.gif";
+    }
+
+    public String getUrlName() {
+        return "vbox-metrics";
+    }
+
+    public String getDisplayName() {
+        return "VirtualBox metrics";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Virtual machine boot, connect and teardown latencies";
+    }
+
+    /**
+     * Metrics expose machine names, so the endpoint is for administrators only
+     */
+    public Api getApi() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return new Api(this);
+    }
+
+    @Exported(inline = true)
+    public List<VBoxMetrics.MachineMetrics> getMachines() {
+        return VBoxMetrics.get().getMachines();
+    }
+
+    @Exported
+    public int getExecutorActiveTasks() {
+        return VBoxExecutors.getActiveCount();
+    }
+
+    @Exported
+    public int getExecutorQueuedTasks() {
+        return VBoxExecutors.getQueueDepth();
+    }
+
+    @Exported
+    public int getExecutorThreads() {
+        return VBoxExecutors.getPoolSize();
+    }
+}
@@ -0,0 +1,302 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parallel connect and disconnect of agents.
+ * <p/>
+ * Works with {@link VBoxAgent} only, so it is shared by {@link VBoxBuildWrapper}
+ * and benchmarks with fake agents.
+ *
+ * @author theirix
+ */
+public final class VBoxOrchestrator {
+
+    /* Interval to check whether a connect attempt is over */
+    private static final int CONNECT_CHECK_INTERVAL = 5;
+
+    private final ExecutorService executor;
+
+    /* Timeout of a single connect attempt and of a disconnect, seconds */
+    private final int connectTimeout;
+
+    public VBoxOrchestrator(ExecutorService executor, int connectTimeout) {
+        this.executor = executor;
+        this.connectTimeout = Math.max(1, connectTimeout);
+    }
+
+    /**
+     * Select agents with given status
+     */
+    public static <T extends VBoxAgent> List<T> select(Collection<T> agents, boolean collectOffline) {
+        List<T> result = new ArrayList<T>();
+        for (T agent : agents) {
+            if (agent.isOnline() != collectOffline)
+                result.add(agent);
+        }
+        return result;
+    }
+
+    /**
+     * Run tasks in parallel
+     *
+     * @throws IOException if any callable failed or evaluated to false
+     */
+    public void executeTasks(List<Callable<Boolean>> callables, TaskListener listener)
+            throws IOException {
+        listener.getLogger().format("Executor: %d active, %d queued tasks\n",
+                VBoxExecutors.getActiveCount(), VBoxExecutors.getQueueDepth());
+        try {
+            List<Future<Boolean>> futures = executor.invokeAll(callables);
+            if (!futureAll(futures)) {
+                throw new IOException("Some slaves are still in a previous state");
+            }
+        } catch (Exception e) {
+            throw new IOException("Node waiting failed", e);
+        }
+        listener.getLogger().format("Successfully awaited %d slaves\n", callables.size());
+    }
+
+    /**
+     * Returns true if all boolean futures evaluates to true
+     * Waits for all of them before return, even after a false or failed one
+     *
+     * @param futures to reduce
+     * @return logical and of future results
+     * @throws ExecutionException the first failure after all futures are done
+     */
+    public static boolean futureAll(final Collection<Future<Boolean>> futures)
+            throws InterruptedException, ExecutionException {
+        boolean result = true;
+        ExecutionException failure = null;
+        for (Future<Boolean> future : futures) {
+            try {
+                if (!future.get())
+                    result = false;
+            } catch (ExecutionException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+        return result;
+    }
+
+    /**
+     * Task that disconnects an agent
+     */
+    public Callable<Boolean> disconnectTask(final VBoxAgent agent, final TaskListener listener,
+                                            final VBoxTimelineAction timeline) {
+        return new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                disconnect(agent, listener, timeline);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Task that connects an agent following its connect schedule
+     *
+     * @param disconnectFirst disconnect an agent before connect, false for shared machines
+     */
+    public Callable<Boolean> connectTask(final VBoxAgent agent, final VBoxReconnectPolicy policy,
+                                         final boolean disconnectFirst, final TaskListener listener,
+                                         final VBoxTimelineAction timeline) {
+        return connectTask(agent, policy, null, disconnectFirst, listener, timeline);
+    }
+
+    /**
+     * Task that probes a guest and connects an agent following its connect schedule
+     *
+     * @param probe readiness probe, null to connect without probing
+     */
+    public Callable<Boolean> connectTask(final VBoxAgent agent, final VBoxReconnectPolicy policy,
+                                         final VBoxProbe probe, final boolean disconnectFirst,
+                                         final TaskListener listener, final VBoxTimelineAction timeline) {
+        return new Callable<Boolean>() {
+            /**
+             * Slave reconnect attempts
+             *
+             * @return does a slave become online
+             */
+            public Boolean call() throws Exception {
+                return connect(agent, policy, probe, disconnectFirst, listener, timeline);
+            }
+        };
+    }
+
+    /**
+     * Disconnect an agent and wait for it up to the disconnect timeout
+     */
+    public void disconnect(VBoxAgent agent, TaskListener listener, VBoxTimelineAction timeline)
+            throws InterruptedException {
+        synchronized (listener) {
+            listener.getLogger().format("Disconnecting slave %s\n", agent.getName());
+        }
+
+        long started = System.currentTimeMillis();
+        timeline.start(agent.getName(), VBoxMetrics.Phase.DISCONNECT);
+        Future future = agent.disconnect("disconnect to connect");
+        try {
+            future.get(connectTimeout, TimeUnit.SECONDS);
+            timeline.end(agent.getName(), VBoxMetrics.Phase.DISCONNECT, "done");
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            timeline.end(agent.getName(), VBoxMetrics.Phase.DISCONNECT, "timed out or failed");
+            synchronized (listener) {
+                listener.getLogger()
+                        .format("Disconnect timed out or failed: %s\n", e.getMessage());
+            }
+        }
+        VBoxMetrics.get().record(agent.getName(), VBoxMetrics.Phase.DISCONNECT,
+                System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Reconnect an agent following its connect schedule
+     *
+     * @param disconnectFirst disconnect an agent before connect, false for shared machines
+     * @return does an agent become online
+     */
+    public boolean connect(VBoxAgent agent, VBoxReconnectPolicy policy, boolean disconnectFirst,
+                           TaskListener listener, VBoxTimelineAction timeline)
+            throws InterruptedException {
+        return connect(agent, policy, null, disconnectFirst, listener, timeline);
+    }
+
+    /**
+     * Reconnect an agent following its connect schedule.
+     * A connect attempt that hangs longer than the connect timeout is cancelled
+     * and the next one is made on schedule.
+     * If a probe is given, the first attempt is made as soon as the probe passes
+     * instead of after the initial delay.
+     *
+     * @param probe readiness probe, null to connect without probing
+     * @param disconnectFirst disconnect an agent before connect, false for shared machines
+     * @return does an agent become online
+     */
+    public boolean connect(VBoxAgent agent, VBoxReconnectPolicy policy, VBoxProbe probe,
+                           boolean disconnectFirst, TaskListener listener, VBoxTimelineAction timeline)
+            throws InterruptedException {
+        if (disconnectFirst)
+            disconnect(agent, listener, timeline);
+
+        long started = System.currentTimeMillis();
+        long deadline = started + policy.getDeadlineMillis();
+        long nextAttempt = started + policy.getInitialDelayMillis();
+        if (probe != null && !agent.isOnline()) {
+            if (!awaitReady(agent, probe, deadline, listener, timeline))
+                return false;
+            nextAttempt = System.currentTimeMillis();
+        }
+
+        synchronized (listener) {
+            listener.getLogger().format("Connect schedule for %s: %s\n",
+                    agent.getName(), policy);
+        }
+        timeline.start(agent.getName(), VBoxMetrics.Phase.AGENT_ONLINE);
+        int retry = 0;
+        Future future = null;
+        long attemptTimeout = TimeUnit.SECONDS.toMillis(connectTimeout);
+        long attemptStarted = 0;
+        while (!agent.isOnline()) {
+            long now = System.currentTimeMillis();
+            if (now >= deadline)
+                break;
+
+            if (future != null && !future.isDone() && now - attemptStarted >= attemptTimeout) {
+                future.cancel(true);
+                future = null;
+                synchronized (listener) {
+                    listener.getLogger().format("Connect attempt %d to %s timed out after %d s\n",
+                            retry, agent.getName(), connectTimeout);
+                }
+            }
+
+            /* Trigger connect when scheduled and only if a previous attempt is over */
+            if (now >= nextAttempt && (future == null || future.isDone())) {
+                if (future != null) {
+                    try {
+                        future.get();
+                    } catch (Exception e) {
+                        synchronized (listener) {
+                            listener.getLogger().format("Connect failed: %s\n",
+                                    e.getMessage());
+                        }
+                    }
+                }
+                synchronized (listener) {
+                    listener.getLogger().format("Reconnecting to %s, try %d...\n",
+                            agent.getName(), retry + 1);
+                }
+                timeline.mark(agent.getName(), VBoxMetrics.Phase.AGENT_ONLINE,
+                        "connect attempt " + (retry + 1));
+                future = agent.connect();
+                attemptStarted = now;
+                ++retry;
+                nextAttempt = now + policy.getDelayMillis(retry);
+            }
+
+            /* Woken up by VBoxReadiness as soon as the agent is online */
+            long wakeUp = nextAttempt > now ? nextAttempt
+                    : now + Math.min(policy.getDelayMillis(retry),
+                    TimeUnit.SECONDS.toMillis(CONNECT_CHECK_INTERVAL));
+            if (future != null && !future.isDone())
+                wakeUp = Math.min(wakeUp, attemptStarted + attemptTimeout);
+            VBoxReadiness.get().awaitOnline(agent, Math.min(wakeUp, deadline) - now,
+                    TimeUnit.MILLISECONDS);
+        }
+        boolean online = agent.isOnline();
+        timeline.end(agent.getName(), VBoxMetrics.Phase.AGENT_ONLINE,
+                online ? "online" : "deadline exceeded");
+        if (online)
+            VBoxMetrics.get().record(agent.getName(), VBoxMetrics.Phase.AGENT_ONLINE,
+                    System.currentTimeMillis() - started);
+        return online;
+    }
+
+    /**
+     * Wait until a guest passes a probe or the agent is online
+     *
+     * @return false if the deadline is exceeded
+     */
+    private boolean awaitReady(VBoxAgent agent, VBoxProbe probe, long deadline,
+                               TaskListener listener, VBoxTimelineAction timeline)
+            throws InterruptedException {
+        synchronized (listener) {
+            listener.getLogger().format("Waiting for %s to pass readiness probe: %s\n",
+                    agent.getName(), probe);
+        }
+        long started = System.currentTimeMillis();
+        timeline.start(agent.getName(), VBoxMetrics.Phase.GUEST_READY);
+        if (!probe.await(agent, deadline - started)) {
+            timeline.end(agent.getName(), VBoxMetrics.Phase.GUEST_READY, "deadline exceeded");
+            synchronized (listener) {
+                listener.getLogger().format("Machine %s is not ready before the deadline\n",
+                        agent.getName());
+            }
+            return false;
+        }
+        long elapsed = System.currentTimeMillis() - started;
+        timeline.end(agent.getName(), VBoxMetrics.Phase.GUEST_READY, "ready");
+        VBoxMetrics.get().record(agent.getName(), VBoxMetrics.Phase.GUEST_READY, elapsed);
+        synchronized (listener) {
+            listener.getLogger().format("Machine %s passed readiness probe in %d ms\n",
+                    agent.getName(), elapsed);
+        }
+        return true;
+    }
+}
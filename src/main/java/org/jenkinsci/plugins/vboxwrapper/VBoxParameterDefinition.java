@@ -12,6 +12,7 @@ import org.kohsuke.stapler.StaplerRequest;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 public class VBoxParameterDefinition extends SimpleParameterDefinition {
 
@@ -21,16 +22,58 @@ public class VBoxParameterDefinition extends SimpleParameterDefinition {
 
     private String nodeDelimiter;
 
+    /* Label expression of nodes to allocate when no nodes are given */
+    private String allocateLabel;
+
+    private int allocateCount;
+
     @DataBoundConstructor
-    public VBoxParameterDefinition(String name, String description, String nodeDelimiter) {
+    public VBoxParameterDefinition(String name, String description, String nodeDelimiter,
+                                   String allocateLabel, int allocateCount) {
         super(name, description);
         this.nodeDelimiter = nodeDelimiter;
+        this.allocateLabel = allocateLabel;
+        this.allocateCount = allocateCount;
     }
 
     public String getNodeDelimiter() {
         return nodeDelimiter;
     }
 
+    public String getAllocateLabel() {
+        return allocateLabel;
+    }
+
+    public int getAllocateCount() {
+        return allocateCount > 0 ? allocateCount : 1;
+    }
+
+    /**
+     * Nodes are allocated by {@link VBoxAllocator} when a build does not specify them
+     */
+    public boolean isAllocate() {
+        return allocateLabel != null && !allocateLabel.trim().equals("");
+    }
+
+    /**
+     * Value with nodes allocated by {@link VBoxAllocationListener} when the build starts,
+     * so queued builds that are merged or cancelled do not hold nodes
+     */
+    private VBoxParameterValue allocate(String name) {
+        VBoxParameterValue value = new VBoxParameterValue(name, getNodeDelimiter(), allocateLabel.trim(),
+                getAllocateCount());
+        value.setDescription(getDescription());
+        return value;
+    }
+
+    /**
+     * Value used by builds triggered without parameters, e.g. by a timer
+     */
+    @Override
+    public ParameterValue getDefaultParameterValue() {
+        return isAllocate() ? allocate(getName()) : null;
+    }
+
     @Extension
     public static class DescriptorImpl extends ParameterDescriptor {
         @Override
@@ -43,7 +86,22 @@ public class VBoxParameterDefinition extends SimpleParameterDefinition {
     public ParameterValue createValue(String value) {
         LOGGER.info("In VBoxParameterDefinition::createValue: " + value);
 
-        return new VBoxParameterValue(getName(), null, getNodeDelimiter());
+        /* Nodes are separated by the delimiter, commas or whitespace */
+        List<String> nodes = new ArrayList<String>();
+        if (value != null) {
+            String delimiter = getNodeDelimiter() != null ? getNodeDelimiter().trim() : "";
+            String separators = delimiter.equals("") ? "[,\\s]+" : "[,\\s]+|" + Pattern.quote(delimiter);
+            for (String node : value.trim().split(separators)) {
+                if (!node.equals(""))
+                    nodes.add(node);
+            }
+        }
+        if (nodes.isEmpty() && isAllocate())
+            return allocate(getName());
+
+        VBoxParameterValue result = new VBoxParameterValue(getName(), nodes, getNodeDelimiter());
+        result.setDescription(getDescription());
+        return result;
     }
 
 
@@ -62,6 +120,9 @@ public class VBoxParameterDefinition extends SimpleParameterDefinition {
             }
         }
 
+        if (nodes.isEmpty() && isAllocate())
+            return allocate(jo.getString("name"));
+
         VBoxParameterValue value = new VBoxParameterValue(jo.getString("name"), nodes, getNodeDelimiter());
         value.setDescription(getDescription());
         return value;
@@ -70,7 +131,8 @@ public class VBoxParameterDefinition extends SimpleParameterDefinition {
     @Override
     public ParameterDefinition copyWithDefaultValue(ParameterValue defaultValueObj) {
         if (defaultValueObj instanceof VBoxParameterValue) {
-            return new VBoxParameterDefinition(getName(), getDescription(), getNodeDelimiter());
+            return new VBoxParameterDefinition(getName(), getDescription(), getNodeDelimiter(),
+                    getAllocateLabel(), allocateCount);
         } else {
             return this;
         }
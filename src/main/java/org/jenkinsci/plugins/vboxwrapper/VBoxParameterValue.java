@@ -18,8 +18,34 @@ public class VBoxParameterValue extends ParameterValue {
     private final List<String> nodes;
     private final String nodeDelimiter;
 
+    /* Lease of allocated nodes, null if nodes are chosen by a user or not allocated yet */
+    private String leaseId;
+
+    /* Label expression of nodes to allocate when the build starts, null if nodes are chosen by a user */
+    private final String allocateLabel;
+
+    private final int allocateCount;
+
+    /* Nodes allocated when the build starts, kept apart from nodes given at schedule time
+       as a queued value must not change its equality */
+    private List<String> allocated;
+
     @DataBoundConstructor
     public VBoxParameterValue(String name, List<String> nodes, String nodeDelimiter) {
+        this(name, nodes, nodeDelimiter, null, 0);
+    }
+
+    /**
+     * Value with nodes allocated by {@link VBoxAllocator} when the build starts
+     *
+     * @param allocateLabel label expression of nodes to allocate
+     */
+    public VBoxParameterValue(String name, String nodeDelimiter, String allocateLabel, int allocateCount) {
+        this(name, null, nodeDelimiter, allocateLabel, allocateCount);
+    }
+
+    private VBoxParameterValue(String name, List<String> nodes, String nodeDelimiter,
+                               String allocateLabel, int allocateCount) {
         super(name);
 
         this.nodes = new ArrayList<String>();
@@ -27,18 +53,56 @@ public class VBoxParameterValue extends ParameterValue {
             this.nodes.addAll(nodes);
         }
         this.nodeDelimiter = nodeDelimiter != null ? nodeDelimiter : "";
+        this.allocateLabel = allocateLabel;
+        this.allocateCount = allocateCount;
     }
 
-    public List<String> getNodes() {
-        return nodes;
+    /**
+     * @return allocated nodes if the value is allocated, nodes given at schedule time otherwise
+     */
+    public synchronized List<String> getNodes() {
+        return allocated != null ? allocated : nodes;
     }
 
     public String getNodeDelimiter() {
         return nodeDelimiter;
     }
 
+    /**
+     * @return lease of nodes allocated by {@link VBoxAllocator}, null if nodes are chosen by a user
+     */
+    public synchronized String getLeaseId() {
+        return leaseId;
+    }
+
+    /**
+     * Nodes are to be allocated when the build starts
+     */
+    public synchronized boolean isAllocationPending() {
+        return allocateLabel != null && leaseId == null;
+    }
+
+    /**
+     * Lease nodes for a starting build
+     *
+     * @return allocated nodes
+     */
+    public synchronized List<String> allocate() {
+        if (!isAllocationPending())
+            return getNodes();
+        String id = VBoxAllocator.get().newLeaseId();
+        return leased(id, VBoxAllocator.get().allocate(id, allocateLabel, allocateCount));
+    }
+
+    /* Tests lease nodes without an allocator */
+    synchronized List<String> leased(String leaseId, List<String> machines) {
+        this.allocated = new ArrayList<String>(machines);
+        this.leaseId = leaseId;
+        return allocated;
+    }
+
     public String getValue() {
-        return StringUtils.join(nodes, nodeDelimiter);
+        return StringUtils.join(getNodes(), nodeDelimiter);
     }
 
     @Override
@@ -56,6 +120,10 @@ public class VBoxParameterValue extends ParameterValue {
     }
 
 
+    /**
+     * Values are equal by nodes given at schedule time and the allocation request,
+     * allocated nodes are ignored
+     */
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -64,7 +132,9 @@ public class VBoxParameterValue extends ParameterValue {
 
         VBoxParameterValue that = (VBoxParameterValue) o;
 
-        return nodeDelimiter.equals(that.nodeDelimiter) && nodes.equals(that.nodes);
+        return nodeDelimiter.equals(that.nodeDelimiter) && nodes.equals(that.nodes)
+                && (allocateLabel != null ? allocateLabel.equals(that.allocateLabel) : that.allocateLabel == null)
+                && allocateCount == that.allocateCount;
     }
 
     @Override
@@ -72,6 +142,8 @@ public class VBoxParameterValue extends ParameterValue {
         int result = super.hashCode();
         result = 31 * result + nodes.hashCode();
         result = 31 * result + nodeDelimiter.hashCode();
+        result = 31 * result + (allocateLabel != null ? allocateLabel.hashCode() : 0);
+        result = 31 * result + allocateCount;
         return result;
     }
 }
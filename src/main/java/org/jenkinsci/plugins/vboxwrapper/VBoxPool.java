@@ -0,0 +1,288 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.OfflineCause;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Controller-wide pool of warm virtual machines.
+ * <p/>
+ * Builds lease pooled machines at setup and return them at teardown, either by name
+ * or by the label of a pool, which gives them warm members first.
+ * {@link VBoxPoolMaintenance} keeps the configured number of idle machines
+ * of every {@link VBoxPoolTemplate} running and connected.
+ *
+ * @author theirix
+ */
+public final class VBoxPool {
+
+    private final static Logger LOGGER = Logger.getLogger(VBoxPool.class.getName());
+
+    /* Disconnect timeout before reset */
+    private static final int DISCONNECT_TIMEOUT = 45;
+
+    /* Connect timeout for booted machines */
+    private static final int CONNECT_TIMEOUT = 3 * 60;
+
+    /* Max wait in seconds for named machines leased by other builds */
+    private static final int LEASE_TIMEOUT = 10 * 60;
+
+    /* Poll interval in seconds for leases of other builds, allocator releases are not signalled */
+    private static final int LEASE_POLL_INTERVAL = 5;
+
+    private static final VBoxPool INSTANCE = new VBoxPool();
+
+    /* Machines used by builds */
+    private final Set<String> leased = new HashSet<String>();
+
+    /* Machines being booted by maintenance */
+    private final Set<String> booting = new HashSet<String>();
+
+    private VBoxPool() {
+    }
+
+    public static VBoxPool get() {
+        return INSTANCE;
+    }
+
+    private static VBoxBuildWrapper.DescriptorImpl descriptor() {
+        return Jenkins.getInstance().getDescriptorByType(VBoxBuildWrapper.DescriptorImpl.class);
+    }
+
+    /**
+     * Find a pool the machine belongs to
+     *
+     * @return template or null if machine is not pooled
+     */
+    public VBoxPoolTemplate findTemplate(String machine) {
+        for (VBoxPoolTemplate template : descriptor().getPoolTemplates()) {
+            if (template.contains(machine))
+                return template;
+        }
+        return null;
+    }
+
+    /**
+     * Find a pool by its label expression
+     *
+     * @return template or null if no pool has the label
+     */
+    public VBoxPoolTemplate findTemplateByLabel(String label) {
+        for (VBoxPoolTemplate template : descriptor().getPoolTemplates()) {
+            if (template.getLabel() != null && template.getLabel().trim().equals(label.trim()))
+                return template;
+        }
+        return null;
+    }
+
+    /**
+     * Lease idle members of a pool for a build, running ones first, and register
+     * the build as their user in {@link VBoxMachineRegistry}
+     *
+     * @param count number of machines, less are leased if not enough members are idle
+     * @param leaseIds allocator leases of the build, machines allocated to other builds are skipped
+     * @return leased machines, they must be returned with {@link #release}
+     */
+    public synchronized List<String> leaseIdle(VBoxPoolTemplate template, int count, String user,
+                                               Collection<String> leaseIds, TaskListener listener) {
+        List<String> warm = new ArrayList<String>();
+        List<String> cold = new ArrayList<String>();
+        for (String machine : template.getMachines()) {
+            if (leased.contains(machine) || VBoxAllocator.get().isLeasedByOther(machine, leaseIds))
+                continue;
+            Computer computer = Jenkins.getInstance().getComputer(machine);
+            if (computer != null && computer.isOnline() && !booting.contains(machine))
+                warm.add(machine);
+            else
+                cold.add(machine);
+        }
+        warm.addAll(cold);
+
+        List<String> result = new ArrayList<String>();
+        for (String machine : warm) {
+            if (result.size() >= count)
+                break;
+            if (!VBoxMachineRegistry.get().tryAcquire(machine, user))
+                continue;
+            leased.add(machine);
+            result.add(machine);
+            listener.getLogger().format("Leased %s machine %s from pool %s\n",
+                    isWarm(machine) ? "warm" : "cold", machine, template.getLabel());
+        }
+        return result;
+    }
+
+    /**
+     * Lease pooled machines for a build. Machines leased by other builds are waited for,
+     * no machine is leased until all of them are free.
+     *
+     * @param machines machines requested by a build
+     * @param leaseIds allocator leases of the build, machines allocated to other builds are waited for
+     * @return pooled machines, they must be returned with {@link #release}
+     * @throws IOException if machines are still leased by other builds after a timeout
+     */
+    public synchronized List<String> lease(List<String> machines, Collection<String> leaseIds,
+                                           TaskListener listener) throws IOException, InterruptedException {
+        Map<String, VBoxPoolTemplate> templates = new LinkedHashMap<String, VBoxPoolTemplate>();
+        for (String machine : machines) {
+            VBoxPoolTemplate template = findTemplate(machine);
+            if (template != null)
+                templates.put(machine, template);
+        }
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LEASE_TIMEOUT);
+        while (true) {
+            List<String> busy = new ArrayList<String>();
+            for (String machine : templates.keySet()) {
+                if (leased.contains(machine) || VBoxAllocator.get().isLeasedByOther(machine, leaseIds))
+                    busy.add(machine);
+            }
+            if (busy.isEmpty())
+                break;
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                throw new IOException("Pooled machines " + busy + " are still leased by other builds");
+            listener.getLogger().format("Waiting for pooled machines %s leased by other builds\n", busy);
+            wait(Math.min(remaining, TimeUnit.SECONDS.toMillis(LEASE_POLL_INTERVAL)));
+        }
+
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<String, VBoxPoolTemplate> entry : templates.entrySet()) {
+            String machine = entry.getKey();
+            leased.add(machine);
+            result.add(machine);
+            listener.getLogger().format("Leased %s machine %s from pool %s\n",
+                    isWarm(machine) ? "warm" : "cold", machine, entry.getValue().getLabel());
+        }
+        return result;
+    }
+
+    /**
+     * Machine is leased by a build
+     */
+    public synchronized boolean isLeased(String machine) {
+        return leased.contains(machine);
+    }
+
+    /**
+     * Machine is running or is being booted by pool maintenance,
+     * so it must not be booted by a build
+     */
+    public synchronized boolean isWarm(String machine) {
+        if (booting.contains(machine))
+            return true;
+        Computer computer = Jenkins.getInstance().getComputer(machine);
+        return computer != null && computer.isOnline();
+    }
+
+    /**
+     * Return a leased machine to the pool applying a reset policy of its template
+     */
+    public void release(String machine, TaskListener listener) throws InterruptedException {
+        try {
+            VBoxPoolTemplate template = findTemplate(machine);
+            if (template == null)
+                return;
+            VBoxResetPolicy policy = VBoxResetPolicy.byId(template.getResetPolicy());
+            listener.getLogger().format("Returning machine %s to pool %s, reset policy: %s\n",
+                    machine, template.getLabel(), policy.getDisplayName());
+
+            Computer computer = Jenkins.getInstance().getComputer(machine);
+            if (computer != null && computer.isOnline() && policy.isDisconnectNeeded()) {
+                Future future = computer.disconnect(new OfflineCause.ByCLI("returned to pool"));
+                try {
+                    future.get(DISCONNECT_TIMEOUT, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    listener.getLogger().format("Disconnect timed out or failed: %s\n", e.getMessage());
+                }
+            }
+
+            boolean running = policy.reset(machine, masterDriver(listener), listener);
+            if (running && computer != null && computer.isOffline())
+                computer.connect(false);
+        } finally {
+            synchronized (this) {
+                leased.remove(machine);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Boot idle machines until every pool has enough warm ones
+     */
+    public void maintain(TaskListener listener) throws InterruptedException {
+        for (VBoxPoolTemplate template : descriptor().getPoolTemplates()) {
+            List<String> toBoot = new ArrayList<String>();
+            synchronized (this) {
+                int warm = 0;
+                List<String> cold = new ArrayList<String>();
+                for (String machine : template.getMachines()) {
+                    /* Machines used outside of the pool are neither warm nor booted */
+                    if (leased.contains(machine) || !VBoxMachineRegistry.get().isIdle(machine)
+                            || VBoxAllocator.get().isLeased(machine))
+                        continue;
+                    if (isWarm(machine))
+                        warm++;
+                    else
+                        cold.add(machine);
+                }
+                for (String machine : cold) {
+                    if (warm + toBoot.size() >= template.getWarmCount())
+                        break;
+                    toBoot.add(machine);
+                }
+                booting.addAll(toBoot);
+            }
+            if (toBoot.isEmpty())
+                continue;
+
+            LOGGER.log(Level.INFO, "Booting pooled machines {0}", toBoot);
+            final VBoxManageDriver driver = masterDriver(listener);
+            try {
+                /* Machines stay in booting state until agents are connected */
+                VBoxBoot.boot("master", Jenkins.getInstance().createLauncher(listener), toBoot,
+                        new VBoxBoot.Task() {
+                            public boolean boot(String machine) throws Exception {
+                                if (!driver.run(machine, VBoxManageDriver.Operation.START).isSuccess())
+                                    return false;
+                                Computer computer = Jenkins.getInstance().getComputer(machine);
+                                if (computer == null || computer.isOnline())
+                                    return true;
+                                try {
+                                    computer.connect(false).get(CONNECT_TIMEOUT, TimeUnit.SECONDS);
+                                } catch (Exception e) {
+                                    LOGGER.log(Level.WARNING, "Pooled machine connect timed out or failed", e);
+                                }
+                                return computer.isOnline();
+                            }
+                        }, listener);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Boot of pooled machines " + toBoot + " failed", e);
+            } finally {
+                synchronized (this) {
+                    booting.removeAll(toBoot);
+                }
+            }
+        }
+    }
+
+    private static VBoxManageDriver masterDriver(TaskListener listener) {
+        return new VBoxManageDriver(descriptor().getVboxManagePath(),
+                Jenkins.getInstance().createLauncher(listener), listener);
+    }
+}
@@ -0,0 +1,30 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+
+/**
+ * Periodically tops up warm machines of every {@link VBoxPoolTemplate}
+ *
+ * @author theirix
+ */
+@Extension
+public class VBoxPoolMaintenance extends AsyncPeriodicWork {
+
+    public VBoxPoolMaintenance() {
+        super("VBox pool maintenance");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        VBoxPool.get().maintain(listener);
+    }
+}
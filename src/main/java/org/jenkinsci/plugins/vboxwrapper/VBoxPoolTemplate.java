@@ -0,0 +1,51 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Pool of equivalent virtual machines selected by a label expression.
+ * The pool keeps a number of machines running and connected between builds.
+ *
+ * @author theirix
+ */
+public class VBoxPoolTemplate {
+
+    private final String label;
+    private final int warmCount;
+    private final String resetPolicy;
+
+    @DataBoundConstructor
+    public VBoxPoolTemplate(String label, int warmCount, String resetPolicy) {
+        this.label = label;
+        this.warmCount = warmCount;
+        this.resetPolicy = resetPolicy;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public int getWarmCount() {
+        return warmCount;
+    }
+
+    public String getResetPolicy() {
+        return resetPolicy;
+    }
+
+    /**
+     * Finds machines of this pool
+     *
+     * @return sorted names of matching nodes
+     */
+    public List<String> getMachines() {
+        return VBoxUtils.getSlaveNamesByLabel(label);
+    }
+
+    public boolean contains(String machine) {
+        return Collections.binarySearch(getMachines(), machine) >= 0;
+    }
+}
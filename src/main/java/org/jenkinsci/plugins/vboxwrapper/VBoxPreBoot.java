@@ -0,0 +1,53 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.BuildableItemWithBuildWrappers;
+import hudson.model.Queue;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Starts machines of a project as soon as its build is scheduled,
+ * so the boot overlaps the queue wait.
+ * <p/>
+ * A queue decision handler is used as queue listeners are not available
+ * in this Jenkins version. It never vetoes scheduling.
+ *
+ * @author theirix
+ */
+@Extension
+public class VBoxPreBoot extends Queue.QueueDecisionHandler {
+
+    private final static Logger LOGGER = Logger.getLogger(VBoxPreBoot.class.getName());
+
+    @Override
+    public boolean shouldSchedule(Queue.Task p, List<Action> actions) {
+        if (!(p instanceof BuildableItemWithBuildWrappers))
+            return true;
+        BuildableItemWithBuildWrappers project = (BuildableItemWithBuildWrappers) p;
+        final VBoxBuildWrapper wrapper = project.getBuildWrappersList().get(VBoxBuildWrapper.class);
+        if (wrapper == null || !wrapper.isUseSetup() || !wrapper.isPreBoot())
+            return true;
+
+        final String user = "queue:" + project.asProject().getFullName();
+        try {
+            /* Pre-boot waits for connect tasks of the shared executor */
+            VBoxExecutors.boots().submit(new Runnable() {
+                public void run() {
+                    try {
+                        wrapper.preBoot(user);
+                    } catch (InterruptedException e) {
+                        LOGGER.log(Level.INFO, "Pre-boot of " + user + " interrupted");
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.WARNING, "Cannot schedule pre-boot of " + user, e);
+        }
+        return true;
+    }
+}
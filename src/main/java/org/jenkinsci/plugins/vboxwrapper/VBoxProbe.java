@@ -0,0 +1,221 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cheap check that a guest has booted far enough to accept an agent connect.
+ * <p/>
+ * Probes are configured with a short spec:
+ * <ul>
+ * <li><tt>tcp:[host:]port</tt> - port accepts connections</li>
+ * <li><tt>ssh:[host[:port]]</tt> - port answers with an SSH banner, port 22 by default</li>
+ * <li><tt>property:name[=value]</tt> - VirtualBox guest property is set, optionally to a value</li>
+ * <li><tt>wait:name[=value]</tt> - same as property, but blocks in <tt>VBoxManage guestproperty wait</tt>
+ * instead of polling</li>
+ * </ul>
+ * Host defaults to the machine name, <tt>%s</tt> in a host is replaced by the machine name.
+ *
+ * @author theirix
+ */
+public abstract class VBoxProbe {
+
+    /* Socket connect and read timeout, milliseconds */
+    private static final int SOCKET_TIMEOUT = 2000;
+
+    /* Interval between polling probes, milliseconds */
+    private static final long PROBE_INTERVAL = 1000;
+
+    /**
+     * @return true if the guest is ready, failures are not ready
+     */
+    public abstract boolean isReady(String vm) throws InterruptedException;
+
+    /**
+     * Wait until the guest is ready or its agent is online
+     *
+     * @param timeout milliseconds
+     * @return false if timeout elapsed
+     */
+    public boolean await(VBoxAgent agent, long timeout) throws InterruptedException {
+        return agent.isOnline() || await(agent.getName(), timeout);
+    }
+
+    /**
+     * Wait until the guest is ready, polling at a short interval.
+     * A state change of its computer wakes the wait early.
+     *
+     * @param timeout milliseconds
+     * @return false if timeout elapsed
+     */
+    public boolean await(String vm, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (!isReady(vm)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                return false;
+            VBoxReadiness.get().awaitSignal(vm, Math.min(PROBE_INTERVAL, remaining), TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * Parse a probe spec
+     *
+     * @param driver driver for guest property probes
+     * @return probe or null if spec is empty
+     * @throws IllegalArgumentException if spec is malformed
+     */
+    public static VBoxProbe parse(String spec, VBoxManageDriver driver) {
+        if (spec == null || spec.trim().equals(""))
+            return null;
+        spec = spec.trim();
+        int pos = spec.indexOf(':');
+        String kind = pos < 0 ? spec : spec.substring(0, pos);
+        String rest = pos < 0 ? "" : spec.substring(pos + 1);
+        if (kind.equals("tcp")) {
+            int portPos = rest.lastIndexOf(':');
+            return new Tcp(portPos < 0 ? "" : rest.substring(0, portPos),
+                    parsePort(rest.substring(portPos + 1), spec), null);
+        } else if (kind.equals("ssh")) {
+            int portPos = rest.lastIndexOf(':');
+            return new Tcp(portPos < 0 ? rest : rest.substring(0, portPos),
+                    portPos < 0 ? 22 : parsePort(rest.substring(portPos + 1), spec), "SSH-");
+        } else if (kind.equals("property") || kind.equals("wait")) {
+            if (rest.equals(""))
+                throw new IllegalArgumentException("Guest property name is missing in probe " + spec);
+            int valuePos = rest.indexOf('=');
+            String property = valuePos < 0 ? rest : rest.substring(0, valuePos);
+            String value = valuePos < 0 ? null : rest.substring(valuePos + 1);
+            return kind.equals("wait") ? new GuestPropertyWait(driver, property, value)
+                    : new GuestProperty(driver, property, value);
+        }
+        throw new IllegalArgumentException("Unknown readiness probe " + spec);
+    }
+
+    private static int parsePort(String port, String spec) {
+        try {
+            return Integer.parseInt(port.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad port in probe " + spec);
+        }
+    }
+
+    /**
+     * TCP port is open and optionally sends a banner
+     */
+    static final class Tcp extends VBoxProbe {
+        private final String host;
+        private final int port;
+        private final String banner;
+
+        Tcp(String host, int port, String banner) {
+            this.host = host;
+            this.port = port;
+            this.banner = banner;
+        }
+
+        @Override
+        public boolean isReady(String vm) {
+            String address = host.equals("") ? vm : host.replace("%s", vm);
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(address, port), SOCKET_TIMEOUT);
+                if (banner == null)
+                    return true;
+                socket.setSoTimeout(SOCKET_TIMEOUT);
+                InputStream in = socket.getInputStream();
+                byte[] buffer = new byte[banner.length()];
+                int read = 0;
+                while (read < buffer.length) {
+                    int count = in.read(buffer, read, buffer.length - read);
+                    if (count < 0)
+                        return false;
+                    read += count;
+                }
+                return new String(buffer, "US-ASCII").equals(banner);
+            } catch (IOException e) {
+                return false;
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return (banner == null ? "tcp " : "ssh ") + (host.equals("") ? "" : host + ":") + port;
+        }
+    }
+
+    /**
+     * Guest property is set by guest additions or a startup script
+     */
+    static class GuestProperty extends VBoxProbe {
+        protected final VBoxManageDriver driver;
+        protected final String property;
+        protected final String value;
+
+        GuestProperty(VBoxManageDriver driver, String property, String value) {
+            this.driver = driver;
+            this.property = property;
+            this.value = value;
+        }
+
+        @Override
+        public boolean isReady(String vm) throws InterruptedException {
+            return matches(driver.getGuestProperty(vm, property));
+        }
+
+        protected boolean matches(String actual) {
+            return actual != null && (value == null || value.equals(actual));
+        }
+
+        @Override
+        public String toString() {
+            return "guest property " + property + (value == null ? "" : " = " + value);
+        }
+    }
+
+    /**
+     * Guest property is set, waits for a change notification in a long-lived VBoxManage call,
+     * so the guest is detected ready as soon as it sets the property
+     */
+    static final class GuestPropertyWait extends GuestProperty {
+
+        /* Max single wait, the property is read again between waits to catch a missed change */
+        private static final long WAIT_SLICE = 30000;
+
+        GuestPropertyWait(VBoxManageDriver driver, String property, String value) {
+            super(driver, property, value);
+        }
+
+        @Override
+        public boolean await(String vm, long timeout) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (!isReady(vm)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    return false;
+                String actual = driver.waitGuestProperty(vm, property, Math.min(WAIT_SLICE, remaining));
+                if (matches(actual))
+                    return true;
+                /* Wait failed at once, e.g. machine is not running yet */
+                if (actual == null && System.currentTimeMillis() < deadline)
+                    VBoxReadiness.get().awaitSignal(vm, Math.min(PROBE_INTERVAL,
+                            deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "wait for " + super.toString();
+        }
+    }
+}
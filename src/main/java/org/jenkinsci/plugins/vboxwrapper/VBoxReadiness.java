@@ -0,0 +1,81 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of threads waiting for agents to come online.
+ * <p/>
+ * Woken by {@link VBoxComputerListener} as soon as a computer changes its state
+ * or by any other {@link VBoxAgent} implementation,
+ * so waiters do not depend on a connect attempt to finish.
+ *
+ * @author theirix
+ */
+public final class VBoxReadiness {
+
+    private static final VBoxReadiness INSTANCE = new VBoxReadiness();
+
+    /* Monitor per computer name */
+    private final ConcurrentMap<String, Object> monitors = new ConcurrentHashMap<String, Object>();
+
+    private VBoxReadiness() {
+    }
+
+    public static VBoxReadiness get() {
+        return INSTANCE;
+    }
+
+    private Object monitor(String name) {
+        Object monitor = monitors.get(name);
+        if (monitor == null) {
+            Object created = new Object();
+            monitor = monitors.putIfAbsent(name, created);
+            if (monitor == null)
+                monitor = created;
+        }
+        return monitor;
+    }
+
+    /**
+     * Wake threads waiting for a computer
+     */
+    public void signal(String name) {
+        Object monitor = monitor(name);
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * Wait until agent is online or timeout elapses
+     *
+     * @return true if agent is online
+     */
+    public boolean awaitOnline(VBoxAgent agent, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        Object monitor = monitor(agent.getName());
+        synchronized (monitor) {
+            while (!agent.isOnline()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    break;
+                monitor.wait(remaining);
+            }
+        }
+        return agent.isOnline();
+    }
+
+    /**
+     * Wait until a computer is signalled or timeout elapses, used by waiters
+     * that have no agent yet
+     */
+    public void awaitSignal(String name, long timeout, TimeUnit unit) throws InterruptedException {
+        Object monitor = monitor(name);
+        synchronized (monitor) {
+            monitor.wait(Math.max(1, unit.toMillis(timeout)));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import java.util.Random;
+
+/**
+ * Schedule of agent connect attempts for a virtual machine.
+ * <p/>
+ * First attempt is made after an initial delay, next attempts are spaced
+ * by an exponentially growing interval with a random jitter until the deadline.
+ * Times are in seconds, the deadline is at least a second.
+ *
+ * @author theirix
+ */
+public final class VBoxReconnectPolicy {
+
+    private static final Random RANDOM = new Random();
+
+    /* Shortest delay between attempts, milliseconds */
+    private static final long MIN_DELAY = 100;
+
+    private final double initialDelay;
+    private final double interval;
+    private final double backoff;
+    private final double maxInterval;
+    private final double jitter;
+    private final int deadline;
+
+    public VBoxReconnectPolicy(double initialDelay, double interval, double backoff,
+                               double maxInterval, double jitter, int deadline) {
+        this.initialDelay = Math.max(0, initialDelay);
+        this.interval = Math.max(0, interval);
+        this.backoff = Math.max(1, backoff);
+        this.maxInterval = Math.max(this.interval, maxInterval);
+        this.jitter = Math.min(1, Math.max(0, jitter));
+        this.deadline = Math.max(1, deadline);
+    }
+
+    public double getInitialDelay() {
+        return initialDelay;
+    }
+
+    public double getInterval() {
+        return interval;
+    }
+
+    public double getBackoff() {
+        return backoff;
+    }
+
+    public double getMaxInterval() {
+        return maxInterval;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    public int getDeadline() {
+        return deadline;
+    }
+
+    public long getInitialDelayMillis() {
+        return (long) (initialDelay * 1000);
+    }
+
+    public long getDeadlineMillis() {
+        return deadline * 1000L;
+    }
+
+    /**
+     * Delay after a connect attempt before the next one
+     *
+     * @param attempt number of attempts made, starting from 1
+     * @return delay in milliseconds
+     */
+    public long getDelayMillis(int attempt) {
+        double delay = Math.min(maxInterval, interval * Math.pow(backoff, Math.max(0, attempt - 1)));
+        if (jitter > 0)
+            delay *= 1 + jitter * (2 * RANDOM.nextDouble() - 1);
+        return Math.max(MIN_DELAY, (long) (delay * 1000));
+    }
+
+    /**
+     * Apply non-empty per machine settings
+     *
+     * @return policy for a machine
+     */
+    public VBoxReconnectPolicy override(VBoxMachineSettings settings) {
+        if (settings == null)
+            return this;
+        return new VBoxReconnectPolicy(
+                parse(settings.getConnectInitialDelay(), initialDelay),
+                parse(settings.getConnectInterval(), interval),
+                parse(settings.getConnectBackoff(), backoff),
+                parse(settings.getConnectMaxInterval(), maxInterval),
+                parse(settings.getConnectJitter(), jitter),
+                (int) parse(settings.getConnectDeadline(), deadline));
+    }
+
+    private static double parse(String value, double defaultValue) {
+        if (value == null || value.trim().equals(""))
+            return defaultValue;
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("initial delay %.1fs, interval %.1fs, backoff %.1f, max interval %.1fs, "
+                + "jitter %.2f, deadline %ds", initialDelay, interval, backoff, maxInterval, jitter, deadline);
+    }
+}
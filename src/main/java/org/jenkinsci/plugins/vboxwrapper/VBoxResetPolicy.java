@@ -0,0 +1,149 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+import java.util.HashMap;
+
+/**
+ * Reset action applied to a pooled virtual machine when a build returns it.
+ * Implementations are registered with {@link Extension}.
+ *
+ * @author theirix
+ */
+public abstract class VBoxResetPolicy implements ExtensionPoint {
+
+    /**
+     * Identifier persisted in the pool configuration
+     */
+    public abstract String getId();
+
+    public abstract String getDisplayName();
+
+    /**
+     * Whether the agent should be disconnected before reset
+     */
+    public boolean isDisconnectNeeded() {
+        return true;
+    }
+
+    /**
+     * Reset a returned machine
+     *
+     * @return true if the machine is left running and its agent should be reconnected
+     */
+    public abstract boolean reset(String vm, VBoxManageDriver driver, TaskListener listener)
+            throws InterruptedException;
+
+    public static ExtensionList<VBoxResetPolicy> all() {
+        return Jenkins.getInstance().getExtensionList(VBoxResetPolicy.class);
+    }
+
+    /**
+     * Find policy by id, falls back to {@link KeepRunning}
+     */
+    public static VBoxResetPolicy byId(String id) {
+        for (VBoxResetPolicy policy : all()) {
+            if (policy.getId().equals(id))
+                return policy;
+        }
+        return all().get(KeepRunning.class);
+    }
+
+    /**
+     * Return machine as is
+     */
+    @Extension
+    public static class KeepRunning extends VBoxResetPolicy {
+        @Override
+        public String getId() {
+            return "none";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Keep running";
+        }
+
+        @Override
+        public boolean isDisconnectNeeded() {
+            return false;
+        }
+
+        @Override
+        public boolean reset(String vm, VBoxManageDriver driver, TaskListener listener) {
+            return true;
+        }
+    }
+
+    /**
+     * Hard reset of the machine, agent is reconnected after reboot
+     */
+    @Extension
+    public static class Reboot extends VBoxResetPolicy {
+        @Override
+        public String getId() {
+            return "reboot";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Reboot";
+        }
+
+        @Override
+        public boolean reset(String vm, VBoxManageDriver driver, TaskListener listener)
+                throws InterruptedException {
+            return driver.run(vm, "controlvm", vm, "reset").isSuccess();
+        }
+    }
+
+    /**
+     * Restore the current snapshot and start the machine again
+     */
+    @Extension
+    public static class RestoreSnapshot extends VBoxResetPolicy {
+        @Override
+        public String getId() {
+            return "snapshot";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Restore current snapshot";
+        }
+
+        @Override
+        public boolean reset(String vm, VBoxManageDriver driver, TaskListener listener)
+                throws InterruptedException {
+            return new VBoxManageDriver.RestoreSnapshot(new HashMap<String, String>())
+                    .run(driver, vm).isSuccess();
+        }
+    }
+
+    /**
+     * Power off the machine, pool maintenance boots a replacement
+     */
+    @Extension
+    public static class PowerOff extends VBoxResetPolicy {
+        @Override
+        public String getId() {
+            return "poweroff";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Power off";
+        }
+
+        @Override
+        public boolean reset(String vm, VBoxManageDriver driver, TaskListener listener)
+                throws InterruptedException {
+            driver.run(vm, VBoxManageDriver.Operation.POWEROFF);
+            return false;
+        }
+    }
+}
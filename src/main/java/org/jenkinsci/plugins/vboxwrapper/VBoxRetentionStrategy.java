@@ -0,0 +1,199 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.model.Descriptor;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.TaskListener;
+import hudson.slaves.OfflineCause;
+import hudson.slaves.RetentionStrategy;
+import hudson.slaves.SlaveComputer;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Turns off the virtual machine of an idle slave and starts it again
+ * when a queued build can run on the slave.
+ * <p/>
+ * Machines are saved or powered off by VBoxManage if the driver is enabled,
+ * otherwise by the global teardown command, and started by the global setup command.
+ * Machines used or torn down by builds, kept running after a build or belonging to a warm pool
+ * are neither stopped nor started, nor are slaves taken offline by an administrator started.
+ *
+ * @author theirix
+ */
+public class VBoxRetentionStrategy extends RetentionStrategy<SlaveComputer> {
+
+    private final static Logger LOGGER = Logger.getLogger(VBoxRetentionStrategy.class.getName());
+
+    /* Default idle time before shutdown */
+    private static final int DEFAULT_IDLE_MINUTES = 30;
+
+    private final int idleMinutes;
+    private final boolean saveState;
+
+    /* Machine is being started or stopped */
+    private transient volatile boolean busy;
+
+    @DataBoundConstructor
+    public VBoxRetentionStrategy(int idleMinutes, boolean saveState) {
+        this.idleMinutes = idleMinutes;
+        this.saveState = saveState;
+    }
+
+    public int getIdleMinutes() {
+        return idleMinutes > 0 ? idleMinutes : DEFAULT_IDLE_MINUTES;
+    }
+
+    /**
+     * Save machine state instead of power off, VBoxManage driver only
+     */
+    public boolean isSaveState() {
+        return saveState;
+    }
+
+    @Override
+    public synchronized long check(final SlaveComputer c) {
+        if (busy)
+            return 1;
+        final String machine = c.getName();
+        if (c.isOnline()) {
+            long idle = System.currentTimeMillis() - c.getIdleStartMilliseconds();
+            if (c.isIdle() && idle > TimeUnit.MINUTES.toMillis(getIdleMinutes()) && isUnmanaged(machine)) {
+                LOGGER.log(Level.INFO, "Machine {0} is idle for {1} minutes, turning it off",
+                        new Object[]{machine, TimeUnit.MILLISECONDS.toMinutes(idle)});
+                submit(c, new Runnable() {
+                    public void run() {
+                        stop(c);
+                    }
+                });
+            }
+        } else if (!c.isConnecting() && !c.isTemporarilyOffline() && isUnmanaged(machine) && isDemanded(c)) {
+            LOGGER.log(Level.INFO, "Queued builds wait for machine {0}, starting it", machine);
+            submit(c, new Runnable() {
+                public void run() {
+                    start(c);
+                }
+            });
+        }
+        return 1;
+    }
+
+    /**
+     * Machine is not controlled by builds, their teardown, linger timers or warm pools
+     */
+    private static boolean isUnmanaged(String machine) {
+        return VBoxMachineRegistry.get().isIdle(machine)
+                && VBoxPool.get().findTemplate(machine) == null
+                && !VBoxAllocator.get().isLeased(machine);
+    }
+
+    /**
+     * Some buildable item could run on the slave
+     */
+    private static boolean isDemanded(SlaveComputer c) {
+        Node node = c.getNode();
+        if (node == null)
+            return false;
+        for (Queue.BuildableItem item : Jenkins.getInstance().getQueue().getBuildableItems(c)) {
+            if (node.canTake(item) == null)
+                return true;
+        }
+        return false;
+    }
+
+    private void submit(SlaveComputer c, Runnable task) {
+        busy = true;
+        try {
+            /* Start waits for boot tasks of the shared executor */
+            VBoxExecutors.boots().submit(task);
+        } catch (RejectedExecutionException e) {
+            busy = false;
+            LOGGER.log(Level.WARNING, "Cannot schedule start or stop of " + c.getName(), e);
+        }
+    }
+
+    private static VBoxBuildWrapper.DescriptorImpl wrapperDescriptor() {
+        return Jenkins.getInstance().getDescriptorByType(VBoxBuildWrapper.DescriptorImpl.class);
+    }
+
+    private void stop(SlaveComputer c) {
+        TaskListener listener = VBoxCommands.logListener(LOGGER);
+        List<String> machines = Collections.singletonList(c.getName());
+        try {
+            /* A hung or failed disconnect must not keep the idle machine running */
+            try {
+                c.disconnect(new OfflineCause.ByCLI("idle machine is turned off"))
+                        .get(wrapperDescriptor().getConnectTimeout(), TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.WARNING, "Cannot disconnect idle machine " + c.getName(), e.getCause());
+            } catch (TimeoutException e) {
+                LOGGER.log(Level.WARNING, "Disconnect of idle machine {0} is not over in {1} s",
+                        new Object[]{c.getName(), wrapperDescriptor().getConnectTimeout()});
+            }
+            Launcher launcher = Jenkins.getInstance().createLauncher(listener);
+            if (wrapperDescriptor().isUseVBoxManage()) {
+                VBoxManageDriver driver = new VBoxManageDriver(wrapperDescriptor().getVboxManagePath(),
+                        launcher, listener);
+                VBoxManageDriver.report(driver.runAll(machines, isSaveState()
+                        ? VBoxManageDriver.Operation.SAVESTATE : VBoxManageDriver.Operation.POWEROFF, 1), listener);
+            } else {
+                VBoxCommands.run(wrapperDescriptor().getTeardownCommand(), machines, launcher, listener);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Cannot turn off idle machine " + c.getName(), e);
+        } finally {
+            busy = false;
+        }
+    }
+
+    /**
+     * Start a machine through host admission control and the boot gate, then connect its slave
+     */
+    private void start(final SlaveComputer c) {
+        final TaskListener listener = VBoxCommands.logListener(LOGGER);
+        try {
+            final Launcher launcher = Jenkins.getInstance().createLauncher(listener);
+            VBoxBoot.boot("master", launcher, Collections.singletonList(c.getName()), new VBoxBoot.Task() {
+                public boolean boot(String machine) throws Exception {
+                    List<String> machines = Collections.singletonList(machine);
+                    boolean success;
+                    if (wrapperDescriptor().isUseVBoxManage()) {
+                        VBoxManageDriver driver = new VBoxManageDriver(wrapperDescriptor().getVboxManagePath(),
+                                launcher, listener);
+                        success = VBoxManageDriver.report(driver.runAll(machines,
+                                VBoxManageDriver.Operation.START, 1), listener);
+                    } else {
+                        success = VBoxCommands.run(wrapperDescriptor().getSetupCommand(), machines,
+                                launcher, listener);
+                    }
+                    return success && new VBoxOrchestrator(VBoxExecutors.get(), wrapperDescriptor().getConnectTimeout())
+                            .connect(new VBoxSlaveAgent(c), wrapperDescriptor().getReconnectPolicy(), false,
+                                    listener, new VBoxTimelineAction());
+                }
+            }, listener);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Cannot start machine " + c.getName(), e);
+        } finally {
+            busy = false;
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<RetentionStrategy<?>> {
+        @Override
+        public String getDisplayName() {
+            return "Turn off VirtualBox machine when idle";
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.slaves.OfflineCause;
+import hudson.slaves.SlaveComputer;
+
+import java.util.concurrent.Future;
+
+/**
+ * {@link VBoxAgent} backed by a Jenkins slave computer
+ *
+ * @author theirix
+ */
+public final class VBoxSlaveAgent implements VBoxAgent {
+
+    private final SlaveComputer computer;
+
+    public VBoxSlaveAgent(SlaveComputer computer) {
+        this.computer = computer;
+    }
+
+    public SlaveComputer getComputer() {
+        return computer;
+    }
+
+    public String getName() {
+        return computer.getName();
+    }
+
+    public boolean isOnline() {
+        return computer.isOnline();
+    }
+
+    public Future<?> connect() {
+        return computer.connect(false);
+    }
+
+    public Future<?> disconnect(String reason) {
+        return computer.disconnect(new OfflineCause.ByCLI(reason));
+    }
+}
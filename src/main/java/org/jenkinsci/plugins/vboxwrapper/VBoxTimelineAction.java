@@ -0,0 +1,289 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.model.Api;
+import hudson.model.Run;
+import hudson.model.RunAction;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Build action with timestamped lifecycle events of virtual machines.
+ * Rendered as a timeline at <tt>vbox-timeline</tt> of a build and exported
+ * at <tt>vbox-timeline/api/json</tt>.
+ *
+ * @author theirix
+ */
+@ExportedBean
+public class VBoxTimelineAction implements RunAction {
+
+    /**
+     * Kind of an event
+     */
+    public enum Type {
+        /* Phase is started */
+        START,
+        /* Phase is over */
+        END,
+        /* Point event inside a phase, e.g. connect attempt */
+        MARK
+    }
+
+    private final List<Event> events = new ArrayList<Event>();
+
+    private transient Run<?, ?> owner;
+
+    public String getIconFileName() {
+        return "clock.gif";
+    }
+
+    public String getDisplayName() {
+        return "VirtualBox timeline";
+    }
+
+    public String getUrlName() {
+        return "vbox-timeline";
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    public Run<?, ?> getOwner() {
+        return owner;
+    }
+
+    public void onAttached(Run r) {
+        owner = r;
+    }
+
+    public void onLoad() {
+    }
+
+    public void onBuildComplete() {
+    }
+
+    public void start(String machine, VBoxMetrics.Phase phase) {
+        add(new Event(machine, Type.START, phase, null));
+    }
+
+    public void end(String machine, VBoxMetrics.Phase phase, String detail) {
+        add(new Event(machine, Type.END, phase, detail));
+    }
+
+    public void mark(String machine, VBoxMetrics.Phase phase, String detail) {
+        add(new Event(machine, Type.MARK, phase, detail));
+    }
+
+    public void start(List<String> machines, VBoxMetrics.Phase phase) {
+        for (String machine : machines) {
+            start(machine, phase);
+        }
+    }
+
+    public void end(List<String> machines, VBoxMetrics.Phase phase, String detail) {
+        for (String machine : machines) {
+            end(machine, phase, detail);
+        }
+    }
+
+    private synchronized void add(Event event) {
+        events.add(event);
+    }
+
+    @Exported(inline = true)
+    public synchronized List<Event> getEvents() {
+        return new ArrayList<Event>(events);
+    }
+
+    /**
+     * Phases of every machine with bar positions relative to the whole timeline
+     */
+    @Exported(inline = true)
+    public List<Row> getRows() {
+        List<Event> snapshot = getEvents();
+        if (snapshot.isEmpty())
+            return new ArrayList<Row>();
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (Event event : snapshot) {
+            first = Math.min(first, event.getTimestamp());
+            last = Math.max(last, event.getTimestamp());
+        }
+        long total = Math.max(1, last - first);
+
+        Map<String, Row> rows = new LinkedHashMap<String, Row>();
+        Map<String, Event> open = new HashMap<String, Event>();
+        for (Event event : snapshot) {
+            Row row = rows.get(event.getMachine());
+            if (row == null) {
+                row = new Row(event.getMachine());
+                rows.put(event.getMachine(), row);
+            }
+            String key = event.getMachine() + "/" + event.getPhase();
+            switch (event.getType()) {
+                case START:
+                    open.put(key, event);
+                    break;
+                case END:
+                    Event started = open.remove(key);
+                    if (started != null)
+                        row.spans.add(new Span(event.getPhase(), event.getDetail(),
+                                started.getTimestamp() - first, event.getTimestamp() - started.getTimestamp(),
+                                total));
+                    break;
+                case MARK:
+                    row.marks.add(new Span(event.getPhase(), event.getDetail(),
+                            event.getTimestamp() - first, 0, total));
+                    break;
+            }
+        }
+        /* Phases still in progress last until the latest event */
+        for (Event started : open.values()) {
+            rows.get(started.getMachine()).spans.add(new Span(started.getPhase(), "in progress",
+                    started.getTimestamp() - first, last - started.getTimestamp(), total));
+        }
+        return new ArrayList<Row>(rows.values());
+    }
+
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Event {
+        private final String machine;
+        private final Type type;
+        private final VBoxMetrics.Phase phase;
+        private final String detail;
+        private final long timestamp;
+
+        Event(String machine, Type type, VBoxMetrics.Phase phase, String detail) {
+            this.machine = machine;
+            this.type = type;
+            this.phase = phase;
+            this.detail = detail;
+            this.timestamp = System.currentTimeMillis();
+        }
+
+        @Exported
+        public String getMachine() {
+            return machine;
+        }
+
+        @Exported
+        public Type getType() {
+            return type;
+        }
+
+        @Exported
+        public VBoxMetrics.Phase getPhase() {
+            return phase;
+        }
+
+        @Exported
+        public String getDetail() {
+            return detail;
+        }
+
+        @Exported
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Row {
+        private final String machine;
+        private final List<Span> spans = new ArrayList<Span>();
+        private final List<Span> marks = new ArrayList<Span>();
+
+        Row(String machine) {
+            this.machine = machine;
+        }
+
+        @Exported
+        public String getMachine() {
+            return machine;
+        }
+
+        @Exported(inline = true)
+        public List<Span> getSpans() {
+            return spans;
+        }
+
+        @Exported(inline = true)
+        public List<Span> getMarks() {
+            return marks;
+        }
+    }
+
+    @ExportedBean(defaultVisibility = 3)
+    public static final class Span {
+        private final VBoxMetrics.Phase phase;
+        private final String detail;
+        private final long offset;
+        private final long duration;
+        private final long total;
+
+        Span(VBoxMetrics.Phase phase, String detail, long offset, long duration, long total) {
+            this.phase = phase;
+            this.detail = detail;
+            this.offset = offset;
+            this.duration = duration;
+            this.total = total;
+        }
+
+        @Exported
+        public VBoxMetrics.Phase getPhase() {
+            return phase;
+        }
+
+        @Exported
+        public String getDetail() {
+            return detail;
+        }
+
+        /**
+         * @return milliseconds since the first event of the build
+         */
+        @Exported
+        public long getOffset() {
+            return offset;
+        }
+
+        @Exported
+        public long getDuration() {
+            return duration;
+        }
+
+        public double getLeftPercent() {
+            return 100.0 * offset / total;
+        }
+
+        public double getWidthPercent() {
+            return Math.max(0.2, 100.0 * duration / total);
+        }
+
+        /**
+         * Bar color of the phase
+         */
+        public String getColor() {
+            switch (phase) {
+                case SETUP_COMMAND:
+                    return "#729fcf";
+                case GUEST_READY:
+                    return "#fce94f";
+                case AGENT_ONLINE:
+                    return "#8ae234";
+                case DISCONNECT:
+                    return "#fcaf3e";
+                case TEARDOWN_COMMAND:
+                    return "#ad7fa8";
+                default:
+                    return "#babdb6";
+            }
+        }
+    }
+}
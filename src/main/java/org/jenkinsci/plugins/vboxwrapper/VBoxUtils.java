@@ -1,26 +1,183 @@
 package org.jenkinsci.plugins.vboxwrapper;
 
+import antlr.ANTLRException;
+import hudson.model.Computer;
+import hudson.model.Label;
 import hudson.model.Node;
 import jenkins.model.Jenkins;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
 
 public class VBoxUtils {
+
+    /* Guards index replacement */
+    private static final Object LOCK = new Object();
+
+    /* Cached node names, null until built or after invalidation */
+    private static volatile NodeIndex index;
+
+    /* Incremented by every invalidation so a stale index is not stored */
+    private static long generation;
+
+    /**
+     * Sorted immutable slave names with lazily cached lookups of configured labels
+     */
+    private static final class NodeIndex {
+        private final List<String> names;
+        private final ConcurrentMap<String, List<String>> byLabel =
+                new ConcurrentHashMap<String, List<String>>();
+
+        NodeIndex(List<String> names) {
+            this.names = names;
+        }
+    }
+
     /**
      * Finds all slave machine names
      *
-     * @return list of names
+     * @return sorted immutable list of names
      */
     public static List<String> getSlaveNames() {
-        final List<Node> nodes = Jenkins.getInstance().getNodes();
-        List<String> test = new ArrayList<String>();
+        return index().names;
+    }
+
+    /**
+     * Finds slave machine names starting with a prefix
+     *
+     * @return sorted immutable list of names
+     */
+    public static List<String> getSlaveNamesByPrefix(String prefix) {
+        List<String> names = index().names;
+        if (prefix == null || prefix.equals(""))
+            return names;
+        int from = Collections.binarySearch(names, prefix);
+        if (from < 0)
+            from = -from - 1;
+        int to = from;
+        while (to < names.size() && names.get(to).startsWith(prefix))
+            to++;
+        return names.subList(from, to);
+    }
+
+    /**
+     * Finds slave machine names matching a label expression
+     *
+     * @return sorted immutable list of names, empty for an unknown label
+     */
+    public static List<String> getSlaveNamesByLabel(String expression) {
+        if (expression == null || expression.trim().equals(""))
+            return Collections.emptyList();
+        NodeIndex current = index();
+        List<String> names = current.byLabel.get(expression.trim());
+        if (names == null) {
+            names = getSlaveNames(Jenkins.getInstance().getLabel(expression.trim()));
+            current.byLabel.putIfAbsent(expression.trim(), names);
+        }
+        return names;
+    }
 
+    private static List<String> getSlaveNames(Label label) {
+        List<String> names = new ArrayList<String>();
+        if (label != null) {
+            for (Node node : label.getNodes()) {
+                if (isSlaveName(node.getNodeName()))
+                    names.add(node.getNodeName());
+            }
+        }
+        Collections.sort(names);
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Finds slave machine names for a picker query
+     * Label queries are neither cached nor registered as labels, as every keystroke is a query.
+     *
+     * @param kind one of prefix, label or regex, a regex may match any part of a name
+     * @return sorted list of names
+     * @throws java.util.regex.PatternSyntaxException if a regex is invalid
+     */
+    public static List<String> searchSlaveNames(String query, String kind) {
+        if ("label".equals(kind)) {
+            if (query == null || query.trim().equals(""))
+                return Collections.emptyList();
+            try {
+                return getSlaveNames(Label.parseExpression(query.trim()));
+            } catch (ANTLRException e) {
+                return Collections.emptyList();
+            }
+        }
+        if ("regex".equals(kind) && query != null && !query.equals("")) {
+            Pattern pattern = Pattern.compile(query);
+            List<String> names = new ArrayList<String>();
+            for (String name : getSlaveNames()) {
+                if (pattern.matcher(name).find())
+                    names.add(name);
+            }
+            return names;
+        }
+        return getSlaveNamesByPrefix(query);
+    }
+
+    /**
+     * @return true if a slave with given name exists
+     */
+    public static boolean isSlaveName(String name) {
+        return name != null && Collections.binarySearch(index().names, name) >= 0;
+    }
+
+    /**
+     * Load of a machine: builds using it and busy executors of its slave
+     */
+    public static int getLoad(String machine) {
+        return VBoxMachineRegistry.get().getUsers(machine).size() + countBusy(machine);
+    }
+
+    /**
+     * Busy executors of the slave of a machine
+     */
+    public static int countBusy(String machine) {
+        Computer computer = Jenkins.getInstance().getComputer(machine);
+        return computer != null ? computer.countBusy() : 0;
+    }
+
+    /**
+     * Drop cached names, called when nodes are added, removed or renamed
+     */
+    public static void invalidate() {
+        synchronized (LOCK) {
+            generation++;
+            index = null;
+        }
+    }
+
+    private static NodeIndex index() {
+        NodeIndex current = index;
+        if (current != null)
+            return current;
+        long built;
+        synchronized (LOCK) {
+            built = generation;
+        }
+
+        final List<Node> nodes = Jenkins.getInstance().getNodes();
+        List<String> names = new ArrayList<String>(nodes.size());
         for (Node node : nodes) {
             if (!node.getNodeName().equals("")
                     && !node.getNodeName().equals("master"))
-                test.add(node.getNodeName());
+                names.add(node.getNodeName());
+        }
+        Collections.sort(names);
+        current = new NodeIndex(Collections.unmodifiableList(names));
+
+        synchronized (LOCK) {
+            if (generation == built)
+                index = current;
         }
-        return test;
+        return current;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,107 @@
+// Machine picker of the VBoxWrapper job configuration
+var vboxPicker = {
+    pickerOf: function (element) {
+        while (element && !Element.hasClassName(element, "vbox-picker"))
+            element = element.parentNode;
+        return element;
+    },
+
+    selected: function (picker) {
+        var result = {};
+        var inputs = picker.getElementsByTagName("input");
+        for (var i = 0; i < inputs.length; i++) {
+            if (inputs[i].name == "virtualSlaves")
+                result[inputs[i].value] = true;
+        }
+        return result;
+    },
+
+    add: function (link, name) {
+        var picker = vboxPicker.pickerOf(link);
+        if (vboxPicker.selected(picker)[name])
+            return;
+        var span = document.createElement("span");
+        span.className = "vbox-machine";
+        span.style.marginRight = "1em";
+        span.style.whiteSpace = "nowrap";
+        var input = document.createElement("input");
+        input.type = "hidden";
+        input.name = "virtualSlaves";
+        input.value = name;
+        span.appendChild(input);
+        span.appendChild(document.createTextNode(name + " "));
+        var remove = document.createElement("a");
+        remove.href = "#";
+        remove.onclick = function () {
+            vboxPicker.remove(remove);
+            return false;
+        };
+        remove.appendChild(document.createTextNode("[x]"));
+        span.appendChild(remove);
+        Element.select(picker, ".vbox-selected")[0].appendChild(span);
+        link.style.color = "gray";
+    },
+
+    remove: function (link) {
+        var span = link.parentNode;
+        span.parentNode.removeChild(span);
+    },
+
+    search: function (id, page) {
+        var picker = $(id);
+        var query = Element.select(picker, ".vbox-query")[0].value;
+        var kind = Element.select(picker, ".vbox-kind")[0].value;
+        var results = Element.select(picker, ".vbox-results")[0];
+        new Ajax.Request(results.getAttribute("data-url"), {
+            method: "get",
+            parameters: {query: query, kind: kind, page: page},
+            onSuccess: function (rsp) {
+                vboxPicker.render(id, results, rsp.responseText.evalJSON());
+            }
+        });
+    },
+
+    render: function (id, results, data) {
+        results.innerHTML = "";
+        if (data.error) {
+            results.appendChild(document.createTextNode(data.error));
+            return;
+        }
+        var selected = vboxPicker.selected($(id));
+        for (var i = 0; i < data.machines.length; i++) {
+            var link = document.createElement("a");
+            link.href = "#";
+            link.style.marginRight = "1em";
+            link.onclick = (function (link, name) {
+                return function () {
+                    vboxPicker.add(link, name);
+                    return false;
+                };
+            })(link, data.machines[i]);
+            if (selected[data.machines[i]])
+                link.style.color = "gray";
+            link.appendChild(document.createTextNode(data.machines[i]));
+            results.appendChild(link);
+            results.appendChild(document.createTextNode(" "));
+        }
+        var footer = document.createElement("div");
+        footer.appendChild(document.createTextNode(data.total + " nodes, page " + (data.page + 1) + " of " + data.pages + " "));
+        vboxPicker.pageLink(id, footer, "<", data.page - 1, data.page > 0);
+        vboxPicker.pageLink(id, footer, ">", data.page + 1, data.page + 1 < data.pages);
+        results.appendChild(footer);
+    },
+
+    pageLink: function (id, footer, text, page, enabled) {
+        if (!enabled)
+            return;
+        var link = document.createElement("a");
+        link.href = "#";
+        link.style.marginRight = "0.5em";
+        link.onclick = function () {
+            vboxPicker.search(id, page);
+            return false;
+        };
+        link.appendChild(document.createTextNode(text));
+        footer.appendChild(link);
+    }
+};
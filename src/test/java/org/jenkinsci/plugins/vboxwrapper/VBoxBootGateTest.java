@@ -0,0 +1,200 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.model.TaskListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Boot slots of {@link VBoxBootGate} and their release by {@link VBoxBoot#throttle}
+ * when boots fail or are cancelled
+ *
+ * @author theirix
+ */
+public class VBoxBootGateTest {
+
+    private static final String HOST = "host";
+
+    private VBoxBootGate gate;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        gate = new VBoxBootGate();
+    }
+
+    @After
+    public void tearDown() {
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    @Test
+    public void limitsBootsInFlight() throws Exception {
+        VBoxBootGate.Permit first = gate.acquire(HOST, 2);
+        gate.acquire(HOST, 2);
+        assertEquals(2, gate.getInFlight(HOST));
+        assertEquals(0, gate.getInFlight("other"));
+
+        Thread waiting = acquireInBackground(HOST, 2);
+        awaitQueueLength(1);
+        assertTrue(waiting.isAlive());
+
+        first.release();
+        waiting.join(5000);
+        assertFalse(waiting.isAlive());
+        assertEquals(2, gate.getInFlight(HOST));
+    }
+
+    @Test
+    public void releaseIsIdempotent() throws Exception {
+        VBoxBootGate.Permit permit = gate.acquire(HOST, 1);
+        permit.release();
+        permit.release();
+        assertEquals(0, gate.getInFlight(HOST));
+
+        gate.acquire(HOST, 1);
+        Thread waiting = acquireInBackground(HOST, 1);
+        awaitQueueLength(1);
+        assertTrue(waiting.isAlive());
+        waiting.interrupt();
+        waiting.join(5000);
+    }
+
+    @Test
+    public void releasesPermitsOfBootedMachines() throws Exception {
+        executor = Executors.newFixedThreadPool(3);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        boolean booted = VBoxBoot.throttle(executor, gate, HOST, 1, Arrays.asList("a", "b", "c"),
+                new VBoxBoot.Task() {
+                    public boolean boot(String machine) throws Exception {
+                        int current = inFlight.incrementAndGet();
+                        synchronized (maxInFlight) {
+                            maxInFlight.set(Math.max(maxInFlight.get(), current));
+                        }
+                        Thread.sleep(20);
+                        inFlight.decrementAndGet();
+                        return true;
+                    }
+                }, TaskListener.NULL);
+
+        assertTrue(booted);
+        assertEquals(1, maxInFlight.get());
+        assertEquals(0, gate.getInFlight(HOST));
+    }
+
+    @Test
+    public void failedBootWaitsForOtherBoots() throws Exception {
+        executor = Executors.newFixedThreadPool(2);
+        final AtomicBoolean slowDone = new AtomicBoolean();
+        try {
+            VBoxBoot.throttle(executor, gate, HOST, 2, Arrays.asList("failing", "slow"), new VBoxBoot.Task() {
+                public boolean boot(String machine) throws Exception {
+                    if (machine.equals("failing"))
+                        throw new IllegalStateException("cannot start " + machine);
+                    Thread.sleep(200);
+                    slowDone.set(true);
+                    return true;
+                }
+            }, TaskListener.NULL);
+            throw new AssertionError("Boot failure is not reported");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(slowDone.get());
+        assertEquals(0, gate.getInFlight(HOST));
+    }
+
+    @Test
+    public void cancelledBootsReleasePermits() throws Exception {
+        /* A single worker runs the first boot, the second one stays queued and never starts */
+        executor = Executors.newSingleThreadExecutor();
+        final Set<String> started = Collections.synchronizedSet(new HashSet<String>());
+        final CountDownLatch running = new CountDownLatch(1);
+        final List<String> machines = Arrays.asList("running", "queued", "waiting");
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread boot = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    VBoxBoot.throttle(executor, gate, HOST, 2, machines, new VBoxBoot.Task() {
+                        public boolean boot(String machine) throws Exception {
+                            started.add(machine);
+                            running.countDown();
+                            new CountDownLatch(1).await();
+                            return true;
+                        }
+                    }, TaskListener.NULL);
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        boot.start();
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        awaitQueueLength(1);
+        assertEquals(2, gate.getInFlight(HOST));
+
+        boot.interrupt();
+        boot.join(5000);
+        assertTrue(failure.get() instanceof InterruptedException);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (gate.getInFlight(HOST) > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, gate.getInFlight(HOST));
+        assertEquals(Collections.singleton("running"), started);
+    }
+
+    @Test
+    public void changedLimitAppliesToNewBoots() throws Exception {
+        VBoxBootGate.Permit old = gate.acquire(HOST, 1);
+        VBoxBootGate.Permit first = gate.acquire(HOST, 2);
+        assertEquals(1, gate.getInFlight(HOST));
+
+        old.release();
+        assertEquals(1, gate.getInFlight(HOST));
+        first.release();
+        assertEquals(0, gate.getInFlight(HOST));
+    }
+
+    private Thread acquireInBackground(final String host, final int permits) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    gate.acquire(host, permits);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void awaitQueueLength(int length) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (gate.getQueueLength(HOST) < length && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(length, gate.getQueueLength(HOST));
+    }
+}
@@ -0,0 +1,35 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.model.Node;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Machines and unlabeled builds of {@link VBoxCloudTemplate}
+ *
+ * @author theirix
+ */
+public class VBoxCloudTemplateTest {
+
+    @Test
+    public void unlabeledBuildsNeedNormalMode() {
+        assertFalse(template(null).matches(null));
+        assertFalse(template(Node.Mode.EXCLUSIVE).matches(null));
+        assertTrue(template(Node.Mode.NORMAL).matches(null));
+        assertEquals(Node.Mode.EXCLUSIVE, template(null).getMode());
+    }
+
+    @Test
+    public void machinesAreSeparatedByCommasOrWhitespace() {
+        assertEquals(Arrays.asList("vm1", "vm2", "vm3"), template(null).getMachineList());
+    }
+
+    private static VBoxCloudTemplate template(Node.Mode mode) {
+        return new VBoxCloudTemplate(" vm1, vm2\nvm3 ", "linux", mode, "/home/jenkins", 1, 10, "");
+    }
+}
@@ -0,0 +1,58 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Buckets and percentile estimates of {@link VBoxHistogram}
+ *
+ * @author theirix
+ */
+public class VBoxHistogramTest {
+
+    @Test
+    public void emptyHistogram() {
+        VBoxHistogram histogram = new VBoxHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getP50());
+        assertEquals(0, histogram.getP99());
+        assertEquals(histogram.getBounds().length + 1, histogram.getCounts().length);
+    }
+
+    @Test
+    public void percentilesAreUpperBoundsOfBuckets() {
+        VBoxHistogram histogram = new VBoxHistogram();
+        for (int i = 0; i < 5; i++) {
+            histogram.record(80);
+        }
+        for (int i = 0; i < 4; i++) {
+            histogram.record(400);
+        }
+        histogram.record(7000);
+
+        assertEquals(10, histogram.getCount());
+        assertEquals(900, histogram.getMean());
+        assertEquals(7000, histogram.getMax());
+        assertEquals(100, histogram.getP50());
+        assertEquals(500, histogram.getP90());
+        /* Bucket bound is capped by the largest sample */
+        assertEquals(7000, histogram.getP99());
+    }
+
+    @Test
+    public void samplesOnBoundsAndOutOfRange() {
+        VBoxHistogram histogram = new VBoxHistogram();
+        histogram.record(100);
+        histogram.record(-5);
+        long[] counts = histogram.getCounts();
+        assertEquals(2, counts[0]);
+        assertEquals(100, histogram.getMax());
+
+        histogram.record(3600000);
+        counts = histogram.getCounts();
+        assertEquals(1, counts[counts.length - 1]);
+        assertEquals(3600000, histogram.getP99());
+    }
+}
@@ -0,0 +1,42 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Parsing of /proc contents by {@link VBoxHostResources}
+ *
+ * @author theirix
+ */
+public class VBoxHostResourcesTest {
+
+    private static final String CPUINFO = "processor\t: 0\nmodel name\t: cpu\n\nprocessor\t: 1\nmodel name\t: cpu\n";
+
+    @Test
+    public void parsesAvailableMemory() {
+        VBoxHostResources resources = VBoxHostResources.parse(
+                "MemTotal:       16384000 kB\nMemFree:         1024000 kB\nMemAvailable:    8192000 kB\n",
+                "0.52 0.40 0.30 1/123 4567\n", CPUINFO);
+        assertEquals(8000, resources.getAvailableMemory());
+        assertEquals(0.52, resources.getLoad(), 0);
+        assertEquals(2, resources.getCores());
+    }
+
+    @Test
+    public void oldKernelsSumFreeMemory() {
+        VBoxHostResources resources = VBoxHostResources.parse(
+                "MemTotal: 4096000 kB\nMemFree: 1024 kB\nBuffers: 1024 kB\nCached: 2048 kB\n",
+                "1.00 1.00 1.00 1/1 1\n", "");
+        assertEquals(4, resources.getAvailableMemory());
+        assertEquals(1, resources.getCores());
+    }
+
+    @Test
+    public void malformedContentsAreUnknown() {
+        assertNull(VBoxHostResources.parse("MemAvailable: lots kB\n", "0.1 0.1 0.1 1/1 1\n", CPUINFO));
+        assertNull(VBoxHostResources.parse("MemAvailable: 1024 kB\n", "", CPUINFO));
+        assertNull(VBoxHostResources.parse("MemAvailable: 1024 kB\n", "high\n", CPUINFO));
+    }
+}
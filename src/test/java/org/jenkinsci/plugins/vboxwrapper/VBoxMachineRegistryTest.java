@@ -0,0 +1,213 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Acquire, linger, expire and teardown ordering of {@link VBoxMachineRegistry}
+ *
+ * @author theirix
+ */
+public class VBoxMachineRegistryTest {
+
+    private VBoxMachineRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new VBoxMachineRegistry();
+    }
+
+    @Test
+    public void firstUserBootsAndLastUserTearsDown() throws Exception {
+        assertEquals(VBoxMachineRegistry.Use.FIRST, registry.acquire("vm", "build#1"));
+        assertEquals(VBoxMachineRegistry.Use.SHARED, registry.acquire("vm", "build#2"));
+        assertEquals(Arrays.asList("build#1", "build#2"), registry.getUsers("vm"));
+
+        assertFalse(registry.release("vm", "build#1"));
+        assertFalse(registry.release("vm", "build#1"));
+        assertTrue(registry.release("vm", "build#2"));
+        assertTrue(registry.getUsers("vm").isEmpty());
+        assertFalse(registry.isIdle("vm"));
+
+        registry.stopped(Collections.singletonList("vm"));
+        assertTrue(registry.isIdle("vm"));
+    }
+
+    @Test
+    public void acquireWaitsForTeardown() throws Exception {
+        registry.acquire("vm", "build#1");
+        registry.release("vm", "build#1");
+
+        final AtomicReference<VBoxMachineRegistry.Use> use = new AtomicReference<VBoxMachineRegistry.Use>();
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    use.set(registry.acquire("vm", "build#2"));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        thread.start();
+        thread.join(200);
+        assertTrue(thread.isAlive());
+        assertFalse(registry.tryAcquire("vm", "build#3"));
+
+        registry.stopped(Collections.singletonList("vm"));
+        thread.join(5000);
+        assertEquals(VBoxMachineRegistry.Use.FIRST, use.get());
+    }
+
+    @Test
+    public void acquireCancelsLingeringTeardown() throws Exception {
+        registry.acquire("vm", "build#1");
+        registry.release("vm", "build#1");
+        final CountDownLatch teardown = new CountDownLatch(1);
+        registry.linger("vm", new Runnable() {
+            public void run() {
+                teardown.countDown();
+            }
+        }, 1, TimeUnit.HOURS);
+
+        assertEquals(Collections.singleton("vm"), registry.getLingering());
+        assertFalse(registry.tryAcquire("vm", "queue#1"));
+        assertEquals(VBoxMachineRegistry.Use.WARM, registry.acquire("vm", "build#2"));
+        assertTrue(registry.getLingering().isEmpty());
+        assertFalse(registry.expire("vm"));
+        assertEquals(1, teardown.getCount());
+    }
+
+    @Test
+    public void expiredMachineIsTornDownBeforeNextAcquire() throws Exception {
+        registry.acquire("vm", "build#1");
+        registry.release("vm", "build#1");
+        final CountDownLatch teardown = new CountDownLatch(1);
+        final AtomicReference<Boolean> expired = new AtomicReference<Boolean>();
+        registry.linger("vm", new Runnable() {
+            public void run() {
+                expired.set(registry.expire("vm"));
+                teardown.countDown();
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+
+        assertTrue(teardown.await(5, TimeUnit.SECONDS));
+        assertTrue(expired.get());
+        assertTrue(registry.getLingering().isEmpty());
+        assertFalse(registry.isIdle("vm"));
+        assertFalse(registry.tryAcquire("vm", "build#2"));
+
+        registry.stopped(Collections.singletonList("vm"));
+        assertEquals(VBoxMachineRegistry.Use.FIRST, registry.acquire("vm", "build#2"));
+    }
+
+    @Test
+    public void tryAcquireTakesIdleMachinesOnly() throws Exception {
+        assertTrue(registry.tryAcquire("vm", "queue#1"));
+        assertFalse(registry.tryAcquire("vm", "queue#2"));
+        assertEquals(VBoxMachineRegistry.Use.SHARED, registry.acquire("vm", "build#1"));
+        assertEquals(Arrays.asList("queue#1", "build#1"), registry.getUsers("vm"));
+    }
+
+    @Test
+    public void leastLoadedPrefersIdleThenLingering() throws Exception {
+        registry.acquire("busy", "build#1");
+        registry.acquire("lingering", "build#1");
+        registry.release("lingering", "build#1");
+        registry.linger("lingering", new Runnable() {
+            public void run() {
+            }
+        }, 1, TimeUnit.HOURS);
+        registry.acquire("stopping", "build#1");
+        registry.release("stopping", "build#1");
+
+        List<String> candidates = Arrays.asList("busy", "idle", "lingering", "stopping", "executors");
+        Map<String, Integer> busy = new HashMap<String, Integer>();
+        busy.put("executors", 2);
+
+        Map<String, VBoxMachineRegistry.Use> acquired = registry.acquireLeastLoaded(candidates, 3, "build#2",
+                busy, false);
+        assertEquals(Arrays.asList("lingering", "idle", "busy"), new ArrayList<String>(acquired.keySet()));
+        assertEquals(VBoxMachineRegistry.Use.WARM, acquired.get("lingering"));
+        assertEquals(VBoxMachineRegistry.Use.FIRST, acquired.get("idle"));
+        assertEquals(VBoxMachineRegistry.Use.SHARED, acquired.get("busy"));
+    }
+
+    @Test
+    public void leastLoadedIdleOnly() {
+        registry.tryAcquire("used", "build#1");
+
+        Map<String, VBoxMachineRegistry.Use> acquired = registry.acquireLeastLoaded(
+                Arrays.asList("used", "free"), 2, "queue#1", new HashMap<String, Integer>(), true);
+        assertEquals(Collections.singleton("free"), acquired.keySet());
+        assertEquals(Collections.singletonList("build#1"), registry.getUsers("used"));
+    }
+
+    @Test
+    public void runningMachineOfFailedSetupIsReusedWarm() throws Exception {
+        /* Setup of build#1 started the machine and failed, the machine lingers as after a build */
+        assertEquals(VBoxMachineRegistry.Use.FIRST, registry.acquire("vm", "build#1"));
+        assertTrue(registry.release("vm", "build#1"));
+        registry.linger("vm", new Runnable() {
+            public void run() {
+            }
+        }, 1, TimeUnit.HOURS);
+
+        assertFalse(registry.isIdle("vm"));
+        assertEquals(VBoxMachineRegistry.Use.WARM, registry.acquire("vm", "build#2"));
+    }
+
+    @Test
+    public void machineOfFailedPreBootIsTornDownBeforeNextAcquire() throws Exception {
+        assertTrue(registry.tryAcquire("vm", "queue#1"));
+        assertTrue(registry.release("vm", "queue#1"));
+        final CountDownLatch expired = new CountDownLatch(1);
+        final CountDownLatch poweroff = new CountDownLatch(1);
+        registry.linger("vm", new Runnable() {
+            public void run() {
+                if (!registry.expire("vm"))
+                    return;
+                expired.countDown();
+                try {
+                    poweroff.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    registry.stopped(Collections.singletonList("vm"));
+                }
+            }
+        }, 0, TimeUnit.MINUTES);
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+
+        final AtomicReference<VBoxMachineRegistry.Use> use = new AtomicReference<VBoxMachineRegistry.Use>();
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    use.set(registry.acquire("vm", "build#1"));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        thread.start();
+        thread.join(200);
+        assertTrue(thread.isAlive());
+
+        poweroff.countDown();
+        thread.join(5000);
+        assertEquals(VBoxMachineRegistry.Use.FIRST, use.get());
+    }
+}
@@ -0,0 +1,82 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import hudson.model.TaskListener;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parsing of VBoxManage output and state waits of {@link VBoxManageDriver}
+ *
+ * @author theirix
+ */
+public class VBoxManageDriverTest {
+
+    @Test
+    public void parsesMachineReadableInfo() {
+        Map<String, String> info = VBoxManageDriver.parseInfo(
+                "name=\"build-vm\"\r\n"
+                        + "VMState=\"running\"\n"
+                        + "VMStateChangeTime=\"2012-06-01T10:00:00.000000000\"\n"
+                        + "memory=1024\n"
+                        + "\"SnapshotName-1\"=\"clean = base\"\n"
+                        + "=\"no key\"\n"
+                        + "garbage\n");
+        assertEquals("build-vm", info.get("name"));
+        assertEquals("running", info.get("VMState"));
+        assertEquals("1024", info.get("memory"));
+        assertEquals("clean = base", info.get("SnapshotName-1"));
+        assertEquals(5, info.size());
+        assertNull(info.get(""));
+    }
+
+    @Test
+    public void emptyInfoForNoOutput() {
+        assertTrue(VBoxManageDriver.parseInfo("").isEmpty());
+    }
+
+    @Test
+    public void parsesWaitedGuestProperty() {
+        assertEquals("Up", VBoxManageDriver.parseWaitedValue(
+                "Name: /VirtualBox/GuestInfo/Net/0/Status, value: Up, flags: TRANSIENT\n"));
+        assertEquals("ready", VBoxManageDriver.parseWaitedValue("Name: /Build/Ready, value: ready"));
+        assertEquals("", VBoxManageDriver.parseWaitedValue("Name: /Build/Ready, value: , flags:"));
+        assertNull(VBoxManageDriver.parseWaitedValue("Time out or interruption while waiting for a notification."));
+        assertNull(VBoxManageDriver.parseWaitedValue(""));
+    }
+
+    @Test
+    public void awaitsRunningState() throws Exception {
+        assertTrue(scripted("poweroff", "poweroff", "running").awaitState("vm", "running", 10000));
+        assertFalse(scripted("poweroff").awaitState("vm", "running", 300));
+    }
+
+    @Test
+    public void unknownStateIsNotAwaited() throws Exception {
+        assertFalse(scripted("poweroff", null, "running").awaitState("vm", "running", 10000));
+    }
+
+    /**
+     * Driver reporting given states, the last one repeats
+     */
+    private static VBoxManageDriver scripted(final String... states) {
+        return new VBoxManageDriver("VBoxManage", null, TaskListener.NULL) {
+            private final Iterator<String> it = Arrays.asList(states).iterator();
+            private String last;
+
+            @Override
+            public String getState(String vm) {
+                if (it.hasNext())
+                    last = it.next();
+                return last;
+            }
+        };
+    }
+}
@@ -0,0 +1,59 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parsing of node lists by {@link VBoxParameterDefinition#createValue(String)}
+ *
+ * @author theirix
+ */
+public class VBoxParameterDefinitionTest {
+
+    @Test
+    public void splitsOnDelimiterCommasAndWhitespace() {
+        VBoxParameterDefinition definition = new VBoxParameterDefinition("NODES", "", ";", null, 0);
+        VBoxParameterValue value = (VBoxParameterValue) definition.createValue(" vm1;vm2, vm3\n vm4 ;");
+        assertEquals(Arrays.asList("vm1", "vm2", "vm3", "vm4"), value.getNodes());
+        assertEquals("vm1;vm2;vm3;vm4", value.getValue());
+        assertEquals("NODES", value.getName());
+    }
+
+    @Test
+    public void delimiterIsNotARegex() {
+        VBoxParameterDefinition definition = new VBoxParameterDefinition("NODES", "", "|", null, 0);
+        VBoxParameterValue value = (VBoxParameterValue) definition.createValue("vm1|vm2");
+        assertEquals(Arrays.asList("vm1", "vm2"), value.getNodes());
+
+        definition = new VBoxParameterDefinition("NODES", "", null, null, 0);
+        value = (VBoxParameterValue) definition.createValue("vm1 vm2,vm3");
+        assertEquals(Arrays.asList("vm1", "vm2", "vm3"), value.getNodes());
+    }
+
+    @Test
+    public void emptyValueWithoutAllocation() {
+        VBoxParameterDefinition definition = new VBoxParameterDefinition("NODES", "", ",", "", 2);
+        assertTrue(((VBoxParameterValue) definition.createValue("")).getNodes().isEmpty());
+        assertEquals(Collections.<String>emptyList(), ((VBoxParameterValue) definition.createValue(null)).getNodes());
+    }
+
+    @Test
+    public void emptyValueIsAllocatedWhenBuildStarts() {
+        VBoxParameterDefinition definition = new VBoxParameterDefinition("NODES", "", ",", " linux ", 0);
+        VBoxParameterValue value = (VBoxParameterValue) definition.createValue(" ");
+        assertTrue(value.isAllocationPending());
+        assertTrue(value.getNodes().isEmpty());
+        assertNull(value.getLeaseId());
+
+        value = (VBoxParameterValue) definition.createValue("vm1");
+        assertEquals(Collections.singletonList("vm1"), value.getNodes());
+        assertFalse(value.isAllocationPending());
+    }
+}
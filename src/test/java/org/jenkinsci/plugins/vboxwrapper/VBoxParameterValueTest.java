@@ -0,0 +1,53 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Equality of {@link VBoxParameterValue} across allocation
+ *
+ * @author theirix
+ */
+public class VBoxParameterValueTest {
+
+    @Test
+    public void givenNodesAreCompared() {
+        assertEquals(new VBoxParameterValue("NODES", Arrays.asList("vm1", "vm2"), ","),
+                new VBoxParameterValue("NODES", Arrays.asList("vm1", "vm2"), ","));
+        assertFalse(new VBoxParameterValue("NODES", Arrays.asList("vm1"), ",").equals(
+                new VBoxParameterValue("NODES", Arrays.asList("vm2"), ",")));
+    }
+
+    @Test
+    public void allocationRequestIsCompared() {
+        assertEquals(new VBoxParameterValue("NODES", ",", "linux", 2),
+                new VBoxParameterValue("NODES", ",", "linux", 2));
+        assertFalse(new VBoxParameterValue("NODES", ",", "linux", 2).equals(
+                new VBoxParameterValue("NODES", ",", "windows", 2)));
+        assertFalse(new VBoxParameterValue("NODES", ",", "linux", 2).equals(
+                new VBoxParameterValue("NODES", ",", "linux", 1)));
+        assertFalse(new VBoxParameterValue("NODES", ",", "linux", 1).equals(
+                new VBoxParameterValue("NODES", Collections.<String>emptyList(), ",")));
+    }
+
+    @Test
+    public void allocationKeepsEquality() {
+        VBoxParameterValue queued = new VBoxParameterValue("NODES", ",", "linux", 1);
+        VBoxParameterValue started = new VBoxParameterValue("NODES", ",", "linux", 1);
+        int hash = started.hashCode();
+
+        started.leased("lease", Arrays.asList("vm1"));
+        assertFalse(started.isAllocationPending());
+        assertEquals(Arrays.asList("vm1"), started.getNodes());
+        assertEquals("vm1", started.getValue());
+        assertEquals(started.getNodes(), started.allocate());
+        assertEquals(queued, started);
+        assertEquals(hash, started.hashCode());
+        assertEquals(queued.hashCode(), started.hashCode());
+    }
+}
@@ -0,0 +1,118 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Spec parsing and waits of {@link VBoxProbe}
+ *
+ * @author theirix
+ */
+public class VBoxProbeTest {
+
+    @Test
+    public void emptySpecHasNoProbe() {
+        assertNull(VBoxProbe.parse(null, null));
+        assertNull(VBoxProbe.parse("  ", null));
+    }
+
+    @Test
+    public void parsesTcpAndSsh() {
+        assertEquals("tcp 8080", VBoxProbe.parse("tcp:8080", null).toString());
+        assertEquals("tcp %s.lab:8080", VBoxProbe.parse(" tcp:%s.lab:8080 ", null).toString());
+        assertEquals("ssh 22", VBoxProbe.parse("ssh", null).toString());
+        assertEquals("ssh 10.0.0.5:22", VBoxProbe.parse("ssh:10.0.0.5", null).toString());
+        assertEquals("ssh 10.0.0.5:2222", VBoxProbe.parse("ssh:10.0.0.5:2222", null).toString());
+    }
+
+    @Test
+    public void parsesGuestProperty() {
+        assertEquals("guest property /VirtualBox/GuestInfo/Net/0/Status = Up",
+                VBoxProbe.parse("property:/VirtualBox/GuestInfo/Net/0/Status=Up", null).toString());
+        assertEquals("guest property /Build/Ready", VBoxProbe.parse("property:/Build/Ready", null).toString());
+        assertEquals("wait for guest property /Build/Ready = yes",
+                VBoxProbe.parse("wait:/Build/Ready=yes", null).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownKind() {
+        VBoxProbe.parse("http:80", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBadPort() {
+        VBoxProbe.parse("tcp:host:http", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingProperty() {
+        VBoxProbe.parse("property:", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingWaitedProperty() {
+        VBoxProbe.parse("wait", null);
+    }
+
+    @Test
+    public void tcpProbeConnectsToHost() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        int port = server.getLocalPort();
+        try {
+            assertTrue(VBoxProbe.parse("tcp:127.0.0.1:" + port, null).isReady("vm"));
+            assertTrue(VBoxProbe.parse("tcp:" + port, null).isReady("127.0.0.1"));
+        } finally {
+            server.close();
+        }
+        assertFalse(VBoxProbe.parse("tcp:127.0.0.1:" + port, null).isReady("vm"));
+    }
+
+    @Test
+    public void awaitPollsMachineUntilReady() throws Exception {
+        final AtomicInteger probes = new AtomicInteger();
+        VBoxProbe probe = new VBoxProbe() {
+            @Override
+            public boolean isReady(String vm) {
+                return vm.equals("vm") && probes.incrementAndGet() >= 3;
+            }
+        };
+        assertTrue(probe.await("vm", 10000));
+        assertEquals(3, probes.get());
+        assertFalse(probe.await("other", 50));
+    }
+
+    @Test
+    public void onlineAgentNeedsNoProbe() throws Exception {
+        VBoxProbe probe = new VBoxProbe() {
+            @Override
+            public boolean isReady(String vm) {
+                throw new AssertionError("Online agent is probed");
+            }
+        };
+        assertTrue(probe.await(new VBoxAgent() {
+            public String getName() {
+                return "vm";
+            }
+
+            public boolean isOnline() {
+                return true;
+            }
+
+            public Future<?> connect() {
+                return null;
+            }
+
+            public Future<?> disconnect(String reason) {
+                return null;
+            }
+        }, 1000));
+    }
+}
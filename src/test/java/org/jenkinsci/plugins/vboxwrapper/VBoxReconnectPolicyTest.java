@@ -0,0 +1,74 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Backoff, jitter and deadline of {@link VBoxReconnectPolicy}
+ *
+ * @author theirix
+ */
+public class VBoxReconnectPolicyTest {
+
+    @Test
+    public void intervalGrowsUpToMaxInterval() {
+        VBoxReconnectPolicy policy = new VBoxReconnectPolicy(0, 1, 2, 10, 0, 60);
+        assertEquals(1000, policy.getDelayMillis(1));
+        assertEquals(2000, policy.getDelayMillis(2));
+        assertEquals(4000, policy.getDelayMillis(3));
+        assertEquals(8000, policy.getDelayMillis(4));
+        assertEquals(10000, policy.getDelayMillis(5));
+        assertEquals(10000, policy.getDelayMillis(50));
+    }
+
+    @Test
+    public void jitterStaysWithinBounds() {
+        VBoxReconnectPolicy policy = new VBoxReconnectPolicy(0, 2, 1, 2, 0.5, 60);
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.getDelayMillis(1);
+            assertTrue("delay " + delay, delay >= 1000 && delay <= 3000);
+        }
+    }
+
+    @Test
+    public void settingsAreClamped() {
+        VBoxReconnectPolicy policy = new VBoxReconnectPolicy(-1, 5, 0.5, 1, 3, 60);
+        assertEquals(0, policy.getInitialDelayMillis());
+        assertEquals(1.0, policy.getBackoff(), 0);
+        assertEquals(5.0, policy.getMaxInterval(), 0);
+        assertEquals(1.0, policy.getJitter(), 0);
+
+        VBoxReconnectPolicy immediate = new VBoxReconnectPolicy(0, 0, 1, 0, 0, 60);
+        assertEquals(100, immediate.getDelayMillis(1));
+    }
+
+    @Test
+    public void deadlineIsAtLeastASecond() {
+        assertEquals(1000, new VBoxReconnectPolicy(0, 1, 1, 1, 0, 0).getDeadlineMillis());
+        assertEquals(1000, new VBoxReconnectPolicy(0, 1, 1, 1, 0, -30).getDeadlineMillis());
+        assertEquals(180000, new VBoxReconnectPolicy(0, 1, 1, 1, 0, 180).getDeadlineMillis());
+    }
+
+    @Test
+    public void machineSettingsOverrideDefaults() {
+        VBoxReconnectPolicy defaults = new VBoxReconnectPolicy(0, 5, 1.5, 45, 0.2, 180);
+        assertSame(defaults, defaults.override(null));
+
+        VBoxReconnectPolicy policy = defaults.override(
+                new VBoxMachineSettings("vm", "", "10", "", "2", "20", "", "-5", ""));
+        assertEquals(10000, policy.getInitialDelayMillis());
+        assertEquals(5.0, policy.getInterval(), 0);
+        assertEquals(2.0, policy.getBackoff(), 0);
+        assertEquals(20.0, policy.getMaxInterval(), 0);
+        assertEquals(0.2, policy.getJitter(), 0);
+        assertEquals(1, policy.getDeadline());
+
+        VBoxReconnectPolicy invalid = defaults.override(
+                new VBoxMachineSettings("vm", "", "soon", "", "", "", "", "", ""));
+        assertEquals(0, invalid.getInitialDelayMillis());
+        assertEquals(180, invalid.getDeadline());
+    }
+}
@@ -0,0 +1,59 @@
+package org.jenkinsci.plugins.vboxwrapper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Prefix and label lookups of the node name index of {@link VBoxUtils}
+ *
+ * @author theirix
+ */
+public class VBoxUtilsTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void namesByPrefix() throws Exception {
+        j.createSlave("vm-b", null, null);
+        j.createSlave("vm-a", null, null);
+        j.createSlave("win-a", null, null);
+
+        assertEquals(Arrays.asList("vm-a", "vm-b", "win-a"), VBoxUtils.getSlaveNames());
+        assertEquals(Arrays.asList("vm-a", "vm-b"), VBoxUtils.getSlaveNamesByPrefix("vm"));
+        assertEquals(Collections.singletonList("win-a"), VBoxUtils.getSlaveNamesByPrefix("win-"));
+        assertEquals(VBoxUtils.getSlaveNames(), VBoxUtils.getSlaveNamesByPrefix(""));
+        assertTrue(VBoxUtils.getSlaveNamesByPrefix("x").isEmpty());
+        assertTrue(VBoxUtils.isSlaveName("vm-a"));
+        assertFalse(VBoxUtils.isSlaveName("master"));
+    }
+
+    @Test
+    public void addedNodesInvalidateIndex() throws Exception {
+        j.createSlave("vm-a", null, null);
+        assertEquals(Collections.singletonList("vm-a"), VBoxUtils.getSlaveNames());
+
+        j.createSlave("vm-b", null, null);
+        assertEquals(Arrays.asList("vm-a", "vm-b"), VBoxUtils.getSlaveNamesByPrefix("vm-"));
+    }
+
+    @Test
+    public void namesByLabel() throws Exception {
+        j.createSlave("vm-b", "linux windows", null);
+        j.createSlave("vm-a", "linux", null);
+
+        assertEquals(Arrays.asList("vm-a", "vm-b"), VBoxUtils.getSlaveNamesByLabel("linux"));
+        assertEquals(Arrays.asList("vm-a", "vm-b"), VBoxUtils.getSlaveNamesByLabel(" linux "));
+        assertEquals(Collections.singletonList("vm-b"), VBoxUtils.getSlaveNamesByLabel("linux && windows"));
+        assertTrue(VBoxUtils.getSlaveNamesByLabel("solaris").isEmpty());
+        assertTrue(VBoxUtils.getSlaveNamesByLabel("").isEmpty());
+    }
+}